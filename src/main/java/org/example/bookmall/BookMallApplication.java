@@ -3,10 +3,13 @@ package org.example.bookmall;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 // 扫描mapper包下的所有Mapper接口
 @MapperScan("org.example.bookmall.Mapper")
+// 开启定时任务（热销榜对账等）
+@EnableScheduling
 public class BookMallApplication {
     public static void main(String[] args) {
         SpringApplication.run(BookMallApplication.class, args);
@@ -6,8 +6,11 @@ import org.example.bookmall.entity.Order;
 import org.example.bookmall.entity.OrderItem;
 import org.example.bookmall.entity.User;
 import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Options;
 import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.Update;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.session.ResultHandler;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
@@ -26,6 +29,8 @@ public interface AdminMapper {
     User selectAdminByLoginNameAndPwd(String loginName, String password);
 
     // 2. 新增图书（适配Book表自增bid，实体类bookId对应表中bid）
+    // 回填自增bid到book.bookId，供搜索索引增量更新
+    @Options(useGeneratedKeys = true, keyProperty = "bookId", keyColumn = "bid")
     @Insert("INSERT INTO Book (book_name, author, price, sale_num, stock_num, book_type) " +
             "VALUES (#{bookName}, #{author}, #{price}, #{saleNum}, #{stockNum}, #{bookType})")
     int insertBook(Book book);
@@ -35,6 +40,10 @@ public interface AdminMapper {
     @Select("SELECT COUNT(*) FROM Book WHERE book_name=#{bookName} AND author=#{author} AND ROUND(price, 2) = ROUND(#{price}, 2)")
     int countDuplicateBook(String bookName, String author, BigDecimal price);
 
+    // 2.1.1 查询相同书名+作者+价格的图书ID（累加库存后用于失效图书缓存）
+    @Select("SELECT bid FROM Book WHERE book_name=#{bookName} AND author=#{author} AND ROUND(price, 2) = ROUND(#{price}, 2)")
+    List<Integer> selectDuplicateBookIds(String bookName, String author, BigDecimal price);
+
     // 2.2 累加已有图书的库存
     // 必须加@Param注解，明确参数名！
     @Update("UPDATE Book SET stock_num = " +
@@ -56,32 +65,58 @@ public interface AdminMapper {
     @Select("SELECT bid AS bookId, book_name, author, price, sale_num, stock_num, book_type, cover_url FROM Book WHERE stock_num BETWEEN 1 AND #{threshold}")
     List<Book> selectLowStockBooks(Integer threshold);
 
-    // 4. 查看所有普通用户（排除管理员）
-    @Select("SELECT * FROM [User] WHERE is_admin != 1 OR is_admin IS NULL")
-    List<User> selectAllCommonUsers();
+    // 4. 查看所有普通用户（排除管理员）：翻页或流式，不再一次性加载整张表
+    // 4.1 普通用户按user_id翻页（keyset：从上一页最后一个user_id之后取limit条）
+    @Select("SELECT TOP (#{limit}) * FROM [User] WHERE (is_admin != 1 OR is_admin IS NULL) " +
+            "AND user_id > #{lastId} ORDER BY user_id")
+    List<User> selectCommonUsersAfter(@Param("lastId") Integer lastId, @Param("limit") Integer limit);
+
+    // 4.2 流式查询全部普通用户：逐行回调，不把整张表放进List
+    @Select("SELECT * FROM [User] WHERE is_admin != 1 OR is_admin IS NULL ORDER BY user_id")
+    @Options(fetchSize = 200, resultSetType = ResultSetType.FORWARD_ONLY)
+    void streamAllCommonUsers(ResultHandler<User> handler);
 
-    // 5. 查看所有订单
-    @Select("SELECT * FROM [Order]")
-    List<Order> selectAllOrders();
+    // 5. 查看所有订单：翻页或流式
+    // 5.1 订单按order_id翻页
+    @Select("SELECT TOP (#{limit}) * FROM [Order] WHERE order_id > #{lastId} ORDER BY order_id")
+    List<Order> selectOrdersAfter(@Param("lastId") Integer lastId, @Param("limit") Integer limit);
+
+    // 5.2 流式查询全部订单
+    @Select("SELECT * FROM [Order] ORDER BY order_id")
+    @Options(fetchSize = 200, resultSetType = ResultSetType.FORWARD_ONLY)
+    void streamAllOrders(ResultHandler<Order> handler);
 
     // 6. 修改图书库存（按bookId=bid修改）→ 这里逻辑本身正确，不用改
     @Update("UPDATE Book SET stock_num=#{newStock} WHERE bid=#{bookId}")
     int updateBookStock(Integer bookId, Integer newStock);
 
-    // 7. 查看所有订单详情 → 核心修改：给bid加别名bookId
-    @Select("SELECT id, order_id, user_id, bid AS bookId, book_name, num FROM OrderItem")
-    List<OrderItem> selectAllOrderItems();
+    // 7. 查看所有订单详情 → 核心修改：给bid加别名bookId；翻页或流式
+    // 7.1 订单详情按自增id翻页
+    @Select("SELECT TOP (#{limit}) id, order_id, user_id, bid AS bookId, book_name, num FROM OrderItem " +
+            "WHERE id > #{lastId} ORDER BY id")
+    List<OrderItem> selectOrderItemsAfter(@Param("lastId") Integer lastId, @Param("limit") Integer limit);
+
+    // 7.2 流式查询全部订单详情
+    @Select("SELECT id, order_id, user_id, bid AS bookId, book_name, num FROM OrderItem ORDER BY id")
+    @Options(fetchSize = 200, resultSetType = ResultSetType.FORWARD_ONLY)
+    void streamAllOrderItems(ResultHandler<OrderItem> handler);
     /**
      * 按订单ID查询订单详情（修复：显式指定字段+bid AS bookId）
      */
     @Select("SELECT id, order_id, user_id, bid AS bookId, book_name, num FROM OrderItem WHERE order_id = #{orderId}")
     List<OrderItem> listOrderItemsByOrderId(Integer orderId);
 
-    // 8. 查看所有图书（全量查询）→ 核心修改：给bid加别名bookId
-    // 修改：添加cover_url字段
-    // 修改后（把 DESC 改为 ASC 或直接删除）：
+    // 8. 查看所有图书 → 核心修改：给bid加别名bookId
+    // 修改：添加cover_url字段；翻页或流式
+    // 8.1 图书按bid翻页
+    @Select("SELECT TOP (#{limit}) bid AS bookId, book_name, author, price, sale_num, stock_num, book_type, cover_url " +
+            "FROM Book WHERE bid > #{lastId} ORDER BY bid ASC")
+    List<Book> selectBooksAfter(@Param("lastId") Integer lastId, @Param("limit") Integer limit);
+
+    // 8.2 流式查询全部图书
     @Select("SELECT bid AS bookId, book_name, author, price, sale_num, stock_num, book_type, cover_url FROM Book ORDER BY bid ASC")
-    List<Book> selectAllBooks();
+    @Options(fetchSize = 200, resultSetType = ResultSetType.FORWARD_ONLY)
+    void streamAllBooks(ResultHandler<Book> handler);
 
     // 9. 图书条件查询（扩展：图书ID + 作者，修复XML特殊字符转义）→ 核心修改：给bid加别名bookId
     // 修改：添加cover_url字段
@@ -145,8 +180,9 @@ public interface AdminMapper {
 
     /**
      * 2. 导出报表（增加时间筛选）
+     * SQL单独定义为常量，列表查询与流式导出共用同一条语句
      */
-    @Select("<script>" +
+    String SALE_REPORT_SQL = "<script>" +
             "SELECT " +
             "b.bid AS bookId, " +
             "b.book_name AS bookName, " +
@@ -171,14 +207,20 @@ public interface AdminMapper {
             "GROUP BY b.bid, b.book_name, b.author, b.price, b.sale_num, b.stock_num, b.cover_url " +
             "HAVING COALESCE(SUM(oi.num), 0) > 0 " +
             "ORDER BY totalSale DESC" +
-            "</script>")
+            "</script>";
+
+    @Select(SALE_REPORT_SQL)
     List<Map<String, Object>> exportAdminSaleReport(
             @Param("startTime") String startTime,
             @Param("endTime") String endTime);
 
-    // 新增：同步销量的方法（如果需要同步totalSale到sale_num）
-    @Update("UPDATE Book SET sale_num = #{totalSale} WHERE bid = #{bookId}")
-    int syncBookSaleNum(@Param("bookId") Integer bookId, @Param("totalSale") Integer totalSale);
+    // 2.1 流式导出报表：逐行回调ResultHandler，不把整个结果集放进List
+    @Select(SALE_REPORT_SQL)
+    @Options(fetchSize = 200, resultSetType = ResultSetType.FORWARD_ONLY)
+    void streamAdminSaleReport(
+            @Param("startTime") String startTime,
+            @Param("endTime") String endTime,
+            ResultHandler<Map<String, Object>> handler);
 
     /**
      * 3. 按订单状态筛选销量（修复：字段名映射）
@@ -218,6 +260,12 @@ public interface AdminMapper {
     // 修改后（根据你的表结构，应该是 bid 而不是 book_id）：
     @Update("UPDATE Book SET cover_url = #{coverUrl} WHERE bid = #{bookId}")
     int updateBookCover(Integer bookId, String coverUrl);
+
+    /**
+     * 所有图书正在使用的封面URL（CoverStorage清理无引用文件用）
+     */
+    @Select("SELECT DISTINCT cover_url FROM Book WHERE cover_url IS NOT NULL AND cover_url <> ''")
+    List<String> selectCoverUrls();
     /**
      * 更新图书信息
      */
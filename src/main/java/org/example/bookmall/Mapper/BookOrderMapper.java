@@ -1,114 +1,449 @@
 package org.example.bookmall.Mapper;
 
+import org.example.bookmall.dto.BookRow;
+import org.example.bookmall.dto.CheckoutLine;
+import org.example.bookmall.dto.OrderBookDTO;
+import org.example.bookmall.dto.OrderDetailRow;
+import org.example.bookmall.dto.OrderRow;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 //图书相关的sql语句
 @Repository
 public class BookOrderMapper {
+    // 流式查询每次从数据库取回的行数
+    private static final int STREAM_FETCH_SIZE = 200;
+    // IN列表单次最多的参数个数（SQL Server单条语句参数上限2100）
+    private static final int MAX_IN_PARAMS = 1000;
+    // placeOrders单批最多订单数（每单7个参数）
+    public static final int PLACE_ORDER_MAX_LINES = 280;
+    // 多本下单一个订单最多的图书种数（insertMainOrder每本2个参数）
+    public static final int ORDER_MAX_BOOKS = MAX_IN_PARAMS;
+    // addBookSaleNums单批最多的销量项数（每项3个参数）
+    public static final int SALE_FLUSH_MAX_ROWS = 600;
+
+    // Book表一行 → BookRow（按列名取值，字段顺序与SELECT无关；SELECT必须包含这8列）
+    static final RowMapper<BookRow> BOOK_ROW_MAPPER = (rs, rowNum) -> new BookRow(
+            getInteger(rs, "bid"),
+            rs.getString("book_name"),
+            rs.getString("author"),
+            rs.getBigDecimal("price"),
+            getInteger(rs, "stock_num"),
+            getInteger(rs, "sale_num"),
+            rs.getString("book_type"),
+            rs.getString("cover_url"));
+
+    // [Order]表一行 → OrderRow
+    static final RowMapper<OrderRow> ORDER_ROW_MAPPER = (rs, rowNum) -> new OrderRow(
+            getInteger(rs, "order_id"),
+            getInteger(rs, "user_id"),
+            rs.getTimestamp("sale_time"),
+            getInteger(rs, "state"),
+            rs.getBigDecimal("sale_price"));
+
+    // 订单明细（OrderItem关联Book）一行 → OrderDetailRow
+    static final RowMapper<OrderDetailRow> ORDER_DETAIL_ROW_MAPPER = (rs, rowNum) -> new OrderDetailRow(
+            getInteger(rs, "order_id"),
+            getInteger(rs, "user_id"),
+            getInteger(rs, "bid"),
+            rs.getString("book_name"),
+            getInteger(rs, "num"),
+            rs.getBigDecimal("bookPrice"),
+            rs.getString("bookAuthor"),
+            rs.getString("cover_url"));
+
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
-    //SQL：模糊搜索图书（书名/作者）
+    //SQL：模糊搜索图书（书名/作者），按销量降序只取前limit本
+    //按IX_Book_sale_num_bid的顺序扫描，宽泛的关键词命中密集，取够limit本就停
     // 修改：添加cover_url字段
-    public List<Map<String, Object>> searchBook(String keyword) {
-        String sql = "SELECT bid, book_name, author, price, stock_num, cover_url FROM book WHERE (book_name LIKE ? OR author LIKE ?) AND stock_num>0";
+    public List<BookRow> searchBook(String keyword, int limit) {
+        String sql = "SELECT TOP (?) bid, book_name, author, price, stock_num, sale_num, book_type, cover_url FROM book " +
+                "WHERE (book_name LIKE ? OR author LIKE ?) AND stock_num>0 ORDER BY sale_num DESC, bid ASC";
         //%是LIKE的通配符
-        return jdbcTemplate.queryForList(sql, "%" + keyword + "%", "%" + keyword + "%");
+        return jdbcTemplate.query(sql, BOOK_ROW_MAPPER, limit, "%" + keyword + "%", "%" + keyword + "%");
     }
 
-    //SQL：根据书id获得图书
-    // 修改：添加cover_url字段
-    public List<Map<String, Object>> getBookById(Integer bookId) {
+    //SQL：根据书id获得图书（不存在返回null）
+    // 修改：添加cover_url字段；返回类型化的BookRow，供BookCache缓存
+    public BookRow getBookById(Integer bookId) {
         String sql = "SELECT bid, book_name, author, price, stock_num, sale_num, book_type, cover_url FROM [BookStoreDB].[dbo].[Book] WHERE bid = ?";
-        return jdbcTemplate.queryForList(sql, bookId);
+        List<BookRow> rows = jdbcTemplate.query(sql, BOOK_ROW_MAPPER, bookId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    //SQL：获得全部图书（含下架），用于启动时构建内存索引
+    public List<BookRow> getAllBookRows() {
+        String sql = "SELECT bid, book_name, author, price, stock_num, sale_num, book_type, cover_url FROM [BookStoreDB].[dbo].[Book]";
+        return jdbcTemplate.query(sql, BOOK_ROW_MAPPER);
+    }
+
+    //SQL：根据多个书id一次性获得图书（IN列表，超过上限时分段查询），不存在的id不返回
+    public List<BookRow> getBooksByIds(Collection<Integer> bookIds) {
+        if (bookIds == null || bookIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Integer> ids = new ArrayList<>(bookIds);
+        List<BookRow> result = new ArrayList<>(ids.size());
+        for (int from = 0; from < ids.size(); from += MAX_IN_PARAMS) {
+            List<Integer> chunk = ids.subList(from, Math.min(from + MAX_IN_PARAMS, ids.size()));
+            String placeholders = chunk.stream().map(id -> "?").collect(Collectors.joining(","));
+            String sql = "SELECT bid, book_name, author, price, stock_num, sale_num, book_type, cover_url FROM [BookStoreDB].[dbo].[Book] WHERE bid IN (" + placeholders + ")";
+            result.addAll(jdbcTemplate.query(sql, BOOK_ROW_MAPPER, chunk.toArray()));
+        }
+        return result;
     }
 
 
     //SQL：插入主订单，返回自增订单id
-    public Integer insertMainOrder(Integer userId, BigDecimal totalPrice) {
+    //订单金额按数据库中当前的Book.price计算（不用缓存里的价格），每本书的单价回填到unitPrices（bid → 单价）
+    //有图书不存在或价格为NULL时不插入，返回null；bookNums：bid → 购买数量（已合并重复bid），最多ORDER_MAX_BOOKS本
+    public Integer insertMainOrder(Integer userId, SortedMap<Integer, Integer> bookNums, Map<Integer, BigDecimal> unitPrices) {
+        if (bookNums.size() > ORDER_MAX_BOOKS) {
+            throw new IllegalArgumentException("一个订单最多" + ORDER_MAX_BOOKS + "种图书");
+        }
+        String values = bookNums.keySet().stream().map(id -> "(?,?)").collect(Collectors.joining(","));
         // 注意：必须写全表名，防止SQL Server表名冲突；state固定为2（已支付）
-        String sql = "INSERT INTO [BookStoreDB].[dbo].[Order](user_id, sale_price, state) VALUES (?,?,2); SELECT ISNULL(SCOPE_IDENTITY(),0) AS order_id";
-        // 强制转Integer，兜底返回0，杜绝null
-        return jdbcTemplate.queryForObject(sql, new Object[]{userId, totalPrice}, Integer.class);
+        String sql = "SET NOCOUNT ON; " +
+                "DECLARE @v TABLE (bid INT PRIMARY KEY, num INT NOT NULL, price DECIMAL(18, 2) NULL); " +
+                "DECLARE @o TABLE (order_id INT NOT NULL); " +
+                "INSERT INTO @v (bid, num, price) SELECT x.bid, x.num, b.price " +
+                "FROM (VALUES " + values + ") AS x(bid, num) INNER JOIN [Book] b ON b.bid = x.bid; " +
+                "IF (SELECT COUNT(*) FROM @v WHERE price IS NOT NULL) = ? " +
+                "INSERT INTO [BookStoreDB].[dbo].[Order](user_id, sale_price, state) OUTPUT inserted.order_id INTO @o (order_id) " +
+                "SELECT ?, SUM(v.price * v.num), 2 FROM @v v; " +
+                "SELECT v.bid, v.price, o.order_id FROM @v v LEFT JOIN @o o ON 1 = 1";
+        List<Object> params = new ArrayList<>(bookNums.size() * 2 + 2);
+        for (Map.Entry<Integer, Integer> e : bookNums.entrySet()) {
+            params.add(e.getKey());
+            params.add(e.getValue());
+        }
+        params.add(bookNums.size());
+        params.add(userId);
+        Integer[] orderId = new Integer[1];
+        jdbcTemplate.query(sql, rs -> {
+            unitPrices.put(rs.getInt("bid"), rs.getBigDecimal("price"));
+            orderId[0] = getInteger(rs, "order_id");
+        }, params.toArray());
+        return orderId[0];
     }
 
-    //SQL：插入单条订单明细
-    public int insertOrderItem(Integer orderId, Integer userId, Integer bookId, Integer num) {
-        String bookName = jdbcTemplate.queryForObject("SELECT book_name FROM [Book] WHERE bid=?", new Object[]{bookId}, String.class);
+    //SQL：批量插入一个订单的全部明细（JDBC批处理，一次往返）
+    //书名取自上层已加载的图书，返回每行的受影响行数（与items顺序一致）
+    //注意：驱动可能返回Statement.SUCCESS_NO_INFO(-2)，表示成功但行数未知
+    public int[] batchInsertOrderItems(Integer orderId, Integer userId, List<OrderBookDTO> items, Map<Integer, BookRow> books) {
         String sql = "INSERT INTO [OrderItem](order_id, user_id, bid, num, book_name) VALUES (?,?,?,?,?)";
-        // 返回受影响行数，用于上层校验
-        return jdbcTemplate.update(sql, orderId, userId, bookId, num, bookName);
-    }
+        return jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                OrderBookDTO item = items.get(i);
+                ps.setInt(1, orderId);
+                ps.setInt(2, userId);
+                ps.setInt(3, item.getBookId());
+                ps.setInt(4, item.getNum());
+                ps.setString(5, books.get(item.getBookId()).getBookName());
+            }
 
-    //SQL:创建订单
-    public int createOrder(Integer userId, Integer bookId, Integer num) {
-        //先查询图书单价+图书名称（提前拿数据，避免重复查询）
-        String bookSql = "SELECT price, book_name FROM [Book] WHERE bid=?";
-        Map<String, Object> bookMap = jdbcTemplate.queryForMap(bookSql, bookId);
-        BigDecimal price = new BigDecimal(bookMap.get("price").toString()); // 图书单价
-        String bookName = bookMap.get("book_name").toString(); // 图书名称
-        BigDecimal totalPrice = price.multiply(new BigDecimal(num)); // 计算订单总价
-
-        //先插入主订单Order，获取自增的orderId
-        String insertOrderSql = "INSERT INTO [BookStoreDB].[dbo].[Order](user_id, sale_price, state) VALUES (?,?,?); SELECT SCOPE_IDENTITY()";
-        //state=2 已支付（无支付功能，创建即支付）；SCOPE_IDENTITY() 获取自增的orderId
-        Integer orderId = jdbcTemplate.queryForObject(insertOrderSql, new Object[]{userId, totalPrice, 2}, Integer.class);
-
-        //调用insertOrderItem，插入明细表（复用正确代码）
-        this.insertOrderItem(orderId, userId, bookId, num);
+            @Override
+            public int getBatchSize() {
+                return items.size();
+            }
+        });
+    }
 
-        //返回自增orderId（上层可拿到订单号，便于前端展示）
-        return orderId;
+    //SQL：下单（单本，组提交用）：库存校验与扣减、插入主订单、插入明细、取回订单号在一个T-SQL批里完成，一次往返
+    //- 未预留订单涉及的图书先按bid升序锁行（UPDLOCK，与reduceBookStockBatch的加锁顺序一致），
+    //  再按到达顺序（seq）逐单分配：库存够的成功并扣减，不够的只让这一单失败，后面同书的小单仍可成功；
+    //  已在内存预留库存的订单（reserved）不扣库存
+    //- 订单金额按数据库中当前的Book.price计算，价格为NULL的订单失败
+    //- 主订单用MERGE ON 1=0插入，OUTPUT带上seq（INSERT ... OUTPUT不保证与VALUES顺序一致）
+    //- XACT_ABORT：任何一步出错整批回滚并抛异常
+    //执行后回填每单的订单号（失败为null）、单价与未预留订单的剩余库存；lines超过PLACE_ORDER_MAX_LINES时分多批
+    public void placeOrders(List<CheckoutLine> lines) {
+        for (int from = 0; from < lines.size(); from += PLACE_ORDER_MAX_LINES) {
+            List<CheckoutLine> chunk = lines.subList(from, Math.min(from + PLACE_ORDER_MAX_LINES, lines.size()));
+            List<Object> params = new ArrayList<>(chunk.size() * 6);
+            StringBuilder values = new StringBuilder();
+            for (int i = 0; i < chunk.size(); i++) {
+                CheckoutLine line = chunk.get(i);
+                values.append(i == 0 ? "(?,?,?,?,?,?)" : ",(?,?,?,?,?,?)");
+                params.add(i);
+                params.add(line.getUserId());
+                params.add(line.getBookId());
+                params.add(line.getNum());
+                params.add(line.getBookName());
+                params.add(line.isReserved() ? 1 : 0);
+            }
+            String sql = "SET NOCOUNT ON; SET XACT_ABORT ON; " +
+                    "DECLARE @req TABLE (seq INT PRIMARY KEY, user_id INT NOT NULL, bid INT NOT NULL, num INT NOT NULL, " +
+                    "book_name NVARCHAR(500) NULL, reserved BIT NOT NULL); " +
+                    "DECLARE @bids TABLE (bid INT PRIMARY KEY); " +
+                    "DECLARE @stock TABLE (bid INT PRIMARY KEY, stock_num INT NOT NULL, price DECIMAL(18, 2) NULL); " +
+                    "DECLARE @ok TABLE (seq INT PRIMARY KEY, price DECIMAL(18, 2) NOT NULL, stock_after INT NULL); " +
+                    "DECLARE @ids TABLE (seq INT PRIMARY KEY, order_id INT NOT NULL); " +
+                    "DECLARE @seq INT = -1, @bid INT, @num INT; " +
+                    "INSERT INTO @req (seq, user_id, bid, num, book_name, reserved) VALUES " + values + "; " +
+                    "INSERT INTO @bids (bid) SELECT DISTINCT bid FROM @req WHERE reserved = 0; " +
+                    "BEGIN TRAN; " +
+                    "INSERT INTO @stock (bid, stock_num, price) " +
+                    "SELECT b.bid, b.stock_num, b.price FROM @bids k " +
+                    "INNER JOIN [Book] b WITH (UPDLOCK, ROWLOCK) ON b.bid = k.bid " +
+                    "WHERE b.stock_num IS NOT NULL ORDER BY k.bid OPTION (FORCE ORDER, LOOP JOIN); " +
+                    "WHILE 1 = 1 BEGIN " +
+                    "SELECT TOP 1 @seq = seq, @bid = bid, @num = num FROM @req " +
+                    "WHERE seq > @seq AND reserved = 0 ORDER BY seq; " +
+                    "IF @@ROWCOUNT = 0 BREAK; " +
+                    "UPDATE @stock SET stock_num = stock_num - @num " +
+                    "OUTPUT @seq, inserted.price, inserted.stock_num INTO @ok (seq, price, stock_after) " +
+                    "WHERE bid = @bid AND stock_num >= @num AND price IS NOT NULL; " +
+                    "END; " +
+                    "INSERT INTO @ok (seq, price) SELECT r.seq, b.price FROM @req r INNER JOIN [Book] b ON b.bid = r.bid " +
+                    "WHERE r.reserved = 1 AND b.price IS NOT NULL; " +
+                    "UPDATE b SET b.stock_num = b.stock_num - t.num FROM [Book] b " +
+                    "INNER JOIN (SELECT r.bid, SUM(r.num) AS num FROM @req r INNER JOIN @ok o ON o.seq = r.seq " +
+                    "WHERE r.reserved = 0 GROUP BY r.bid) t ON t.bid = b.bid; " +
+                    "MERGE INTO [BookStoreDB].[dbo].[Order] AS t " +
+                    "USING (SELECT r.seq, r.user_id, o.price * r.num AS sale_price FROM @req r INNER JOIN @ok o ON o.seq = r.seq) AS v " +
+                    "ON 1 = 0 " +
+                    "WHEN NOT MATCHED THEN INSERT (user_id, sale_price, state) VALUES (v.user_id, v.sale_price, 2) " +
+                    "OUTPUT v.seq, inserted.order_id INTO @ids (seq, order_id); " +
+                    "INSERT INTO [OrderItem](order_id, user_id, bid, num, book_name) " +
+                    "SELECT i.order_id, r.user_id, r.bid, r.num, r.book_name FROM @ids i INNER JOIN @req r ON r.seq = i.seq; " +
+                    "COMMIT; " +
+                    "SELECT o.seq, i.order_id, o.price, o.stock_after FROM @ok o INNER JOIN @ids i ON i.seq = o.seq";
+            jdbcTemplate.query(sql, rs -> {
+                CheckoutLine line = chunk.get(rs.getInt("seq"));
+                line.setOrderId(rs.getInt("order_id"));
+                line.setUnitPrice(rs.getBigDecimal("price"));
+                if (!line.isReserved()) {
+                    line.setStockAfter(getInteger(rs, "stock_after"));
+                }
+            }, params.toArray());
+        }
     }
 
     //SQL:查询个人订单列表
-    public List<Map<String, Object>> getMyOrder(Integer userId) {
-        String sql = "SELECT * FROM [Order] WHERE user_id=?";
-        return jdbcTemplate.queryForList(sql, userId);
+    public List<OrderRow> getMyOrder(Integer userId) {
+        String sql = "SELECT order_id, user_id, sale_time, state, sale_price FROM [Order] WHERE user_id=?";
+        return jdbcTemplate.query(sql, ORDER_ROW_MAPPER, userId);
     }
 
     //SQL：查询个人订单详情
-    public List<Map<String, Object>> getOrderDetail(Integer orderId) {
+    public List<OrderDetailRow> getOrderDetail(Integer orderId) {
         String sql = "SELECT oi.order_id, oi.user_id, oi.bid, oi.book_name, oi.num, b.price AS bookPrice, b.author AS bookAuthor, b.cover_url " +  // 添加cover_url
                 "FROM [OrderItem] oi " +
                 "LEFT JOIN [Book] b ON oi.bid = b.bid " +
                 "WHERE oi.order_id=?";
-        return jdbcTemplate.queryForList(sql, orderId);
+        return jdbcTemplate.query(sql, ORDER_DETAIL_ROW_MAPPER, orderId);
     }
 
     //SQL：查询销量TOP10的图书
-    // 修改：添加cover_url字段
-    public List<Map<String, Object>> getHotBookTop10() {
+    // 修改：添加cover_url字段；sale_num为订单明细累计销量
+    public List<BookRow> getHotBookTop10() {
         String sql = "SELECT TOP 10 b.bid, b.book_name, b.price, b.author, b.stock_num, b.book_type, b.cover_url, " +
                 "ISNULL(s.sale_num, 0) AS sale_num " +
                 "FROM [Book] b " +
                 "LEFT JOIN (SELECT bid, SUM(num) AS sale_num FROM [OrderItem] GROUP BY bid) s " +
                 "ON b.bid = s.bid " +
                 "ORDER BY ISNULL(s.sale_num, 0) DESC";
-        return jdbcTemplate.queryForList(sql);
+        return jdbcTemplate.query(sql, BOOK_ROW_MAPPER);
+    }
+
+    //SQL：汇总每本书的累计销量（含无销量的书，记0），只统计订单号不超过upToOrderId的订单，热销榜启动和对账时使用
+    public Map<Integer, Long> getBookSaleTotals(int upToOrderId) {
+        String sql = "SELECT b.bid, ISNULL(SUM(oi.num), 0) AS sale_num " +
+                "FROM [Book] b " +
+                "LEFT JOIN [OrderItem] oi ON b.bid = oi.bid AND oi.order_id <= ? " +
+                "GROUP BY b.bid";
+        Map<Integer, Long> totals = new HashMap<>();
+        jdbcTemplate.query(sql, rs -> {
+            totals.put(rs.getInt("bid"), rs.getLong("sale_num"));
+        }, upToOrderId);
+        return totals;
+    }
+
+    //当前最大订单号（内存汇总的水位：先读水位，再只汇总水位以内的订单）
+    public int getMaxOrderId() {
+        String sql = "SELECT ISNULL(MAX(order_id), 0) FROM [Order]";
+        return jdbcTemplate.queryForObject(sql, Integer.class);
+    }
+
+    //按订单状态汇总每本书的销量（订单状态销量矩阵初始化/对账用），只统计订单号不超过upToOrderId的订单
+    //返回 state → (bid → 销量)，与AdminMapper.statSaleByOrderState一样只统计Book表中存在的图书
+    public Map<Integer, Map<Integer, Long>> getSaleTotalsByState(int upToOrderId) {
+        String sql = "SELECT o.state, oi.bid, SUM(oi.num) AS total_sale " +
+                "FROM [OrderItem] oi " +
+                "INNER JOIN [Order] o ON oi.order_id = o.order_id " +
+                "INNER JOIN [Book] b ON b.bid = oi.bid " +
+                "WHERE o.state IS NOT NULL AND o.order_id <= ? " +
+                "GROUP BY o.state, oi.bid";
+        Map<Integer, Map<Integer, Long>> totals = new HashMap<>();
+        jdbcTemplate.query(sql, rs -> {
+            totals.computeIfAbsent(rs.getInt("state"), k -> new HashMap<>())
+                    .put(rs.getInt("bid"), rs.getLong("total_sale"));
+        }, upToOrderId);
+        return totals;
     }
 
     // 扣减图书库存（乐观锁：确保库存>=购买数量才扣减,防止超卖）
-    public int reduceBookStock(Integer bookId, Integer num) {
+    public Integer reduceBookStock(Integer bookId, Integer num) {
         // 乐观锁：WHERE stock_num >= ? 防止库存不足时扣减
-        String sql = "UPDATE [Book] SET stock_num = stock_num - ? WHERE bid = ? AND stock_num >= ?";
-        // 返回受影响行数：1=扣减成功；0=库存不足/图书不存在
-        return jdbcTemplate.update(sql, num, bookId, num);
+        String sql = "UPDATE [Book] SET stock_num = stock_num - ? OUTPUT inserted.stock_num WHERE bid = ? AND stock_num >= ?";
+        // 返回扣减后的剩余库存（供库存预警索引使用）；null=库存不足/图书不存在
+        List<Integer> remaining = jdbcTemplate.queryForList(sql, Integer.class, num, bookId, num);
+        return remaining.isEmpty() ? null : remaining.get(0);
+    }
+
+    // 热门图书库存租约（StockReservationEngine用）：一次从Book.stock_num划走一批库存到内存
+    // 最多划走maxNum本，且至少给数据库留1本（租约期间列表/搜索仍显示有货，库存见底后由原SQL扣减收尾）
+    // 返回 {划走的数量, 划走后数据库剩余库存}；库存≤1或图书不存在返回null
+    public int[] leaseBookStock(Integer bookId, int maxNum) {
+        String sql = "UPDATE [Book] SET stock_num = stock_num - " +
+                "CASE WHEN stock_num - 1 > ? THEN ? ELSE stock_num - 1 END " +
+                "OUTPUT deleted.stock_num - inserted.stock_num AS leased, inserted.stock_num " +
+                "WHERE bid = ? AND stock_num > 1";
+        List<int[]> rows = jdbcTemplate.query(sql,
+                (rs, rowNum) -> new int[]{rs.getInt("leased"), rs.getInt("stock_num")},
+                maxNum, maxNum, bookId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    // 归还租约中未用完的库存；已下架(-1)的图书不归还
+    public int returnBookStock(Integer bookId, int num) {
+        String sql = "UPDATE [Book] SET stock_num = stock_num + ? WHERE bid = ? AND stock_num >= 0";
+        return jdbcTemplate.update(sql, num, bookId);
+    }
+
+    // 批量扣减库存：一条UPDATE ... FROM (VALUES ...) 完成所有图书的扣减
+    // bookNums：bid → 扣减数量，调用方需已合并重复bid；SortedMap保证按bid升序加锁，
+    // 配合FORCE ORDER + LOOP JOIN让SQL Server按VALUES顺序逐行加锁，多个购物车并发时不会交叉死锁
+    // 返回扣减成功的 bid → 剩余库存；不在结果中的bid即扣减失败（库存不足/图书不存在），部分失败时调用方需回滚事务
+    public Map<Integer, Integer> reduceBookStockBatch(SortedMap<Integer, Integer> bookNums) {
+        if (bookNums == null || bookNums.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<Map.Entry<Integer, Integer>> entries = new ArrayList<>(bookNums.entrySet());
+        Map<Integer, Integer> reduced = new HashMap<>();
+        // 每行2个参数，分段后仍按bid升序执行
+        for (int from = 0; from < entries.size(); from += MAX_IN_PARAMS) {
+            List<Map.Entry<Integer, Integer>> chunk = entries.subList(from, Math.min(from + MAX_IN_PARAMS, entries.size()));
+            String values = chunk.stream().map(e -> "(?,?)").collect(Collectors.joining(","));
+            String sql = "UPDATE b SET b.stock_num = b.stock_num - v.num " +
+                    "OUTPUT inserted.bid, inserted.stock_num " +
+                    "FROM (VALUES " + values + ") AS v(bid, num) " +
+                    "INNER JOIN [Book] b ON b.bid = v.bid " +
+                    "WHERE b.stock_num >= v.num " +
+                    "OPTION (FORCE ORDER, LOOP JOIN)";
+            List<Object> params = new ArrayList<>(chunk.size() * 2);
+            for (Map.Entry<Integer, Integer> e : chunk) {
+                params.add(e.getKey());
+                params.add(e.getValue());
+            }
+            // UPDATE带OUTPUT子句会返回结果集：成功扣减的bid及扣减后的库存
+            jdbcTemplate.query(sql, rs -> {
+                reduced.put(rs.getInt("bid"), rs.getInt("stock_num"));
+            }, params.toArray());
+        }
+        return reduced;
+    }
+
+    // 批量累加销量（SaleCounter定时刷写用）：sales每项为{order_id, bid, num}，一批最多SALE_FLUSH_MAX_ROWS项
+    // 先锁住SaleNumWatermark，只累加订单号大于水位的销量（水位以内的订单已由resyncBookSaleNums按明细算过），
+    // 再按bid升序（与扣库存顺序一致）一条UPDATE加到sale_num上；返回被更新的bid
+    public List<Integer> addBookSaleNums(List<int[]> sales) {
+        if (sales == null || sales.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (sales.size() > SALE_FLUSH_MAX_ROWS) {
+            throw new IllegalArgumentException("单批销量不能超过" + SALE_FLUSH_MAX_ROWS + "项");
+        }
+        String values = sales.stream().map(s -> "(?,?,?)").collect(Collectors.joining(","));
+        String sql = "SET NOCOUNT ON; SET XACT_ABORT ON; " +
+                "DECLARE @sale TABLE (order_id INT NOT NULL, bid INT NOT NULL, num INT NOT NULL); " +
+                "DECLARE @delta TABLE (bid INT PRIMARY KEY, delta INT NOT NULL); " +
+                "DECLARE @done TABLE (bid INT PRIMARY KEY); " +
+                "DECLARE @w INT; " +
+                "INSERT INTO @sale (order_id, bid, num) VALUES " + values + "; " +
+                "BEGIN TRAN; " +
+                "SELECT @w = last_order_id FROM [SaleNumWatermark] WITH (UPDLOCK, HOLDLOCK) WHERE id = 1; " +
+                "INSERT INTO @delta (bid, delta) SELECT bid, SUM(num) FROM @sale " +
+                "WHERE order_id > ISNULL(@w, 0) GROUP BY bid; " +
+                "UPDATE b SET b.sale_num = ISNULL(b.sale_num, 0) + v.delta " +
+                "OUTPUT inserted.bid INTO @done (bid) " +
+                "FROM @delta v INNER JOIN [Book] b ON b.bid = v.bid " +
+                "OPTION (FORCE ORDER, LOOP JOIN); " +
+                "COMMIT; " +
+                "SELECT bid FROM @done";
+        List<Object> params = new ArrayList<>(sales.size() * 3);
+        for (int[] sale : sales) {
+            params.add(sale[0]);
+            params.add(sale[1]);
+            params.add(sale[2]);
+        }
+        return jdbcTemplate.query(sql, (rs, rowNum) -> rs.getInt("bid"), params.toArray());
+    }
+
+    // 按订单明细重算销量（SaleCounter补齐/对账用），返回被修正的bid
+    // sale_num的口径是已支付（state=2）订单的销量，与原先导出报表时同步的totalSale一致；
+    // 订单创建即为2、目前没有修改状态的接口，所以与下单事件累加的增量口径相同
+    // 锁住SaleNumWatermark后读当前最大订单号作为新水位，只按水位以内的订单重算，再把水位写回：
+    // 之后任何节点刷写水位以内订单的增量都会被addBookSaleNums丢弃，不会重复累加；
+    // 读水位时尚未提交的订单（订单号在水位以内）这一轮会少算，下一轮对账补上
+    public List<Integer> resyncBookSaleNums() {
+        String sql = "SET NOCOUNT ON; SET XACT_ABORT ON; " +
+                "DECLARE @w INT; " +
+                "DECLARE @fixed TABLE (bid INT PRIMARY KEY); " +
+                "BEGIN TRAN; " +
+                "SELECT @w = last_order_id FROM [SaleNumWatermark] WITH (UPDLOCK, HOLDLOCK) WHERE id = 1; " +
+                "SELECT @w = ISNULL(MAX(order_id), 0) FROM [Order]; " +
+                "UPDATE b SET b.sale_num = ISNULL(s.total, 0) " +
+                "OUTPUT inserted.bid INTO @fixed (bid) " +
+                "FROM [Book] b " +
+                "LEFT JOIN (SELECT oi.bid, SUM(oi.num) AS total FROM [OrderItem] oi " +
+                "INNER JOIN [Order] o ON o.order_id = oi.order_id " +
+                "WHERE o.order_id <= @w AND o.state = 2 GROUP BY oi.bid) s ON s.bid = b.bid " +
+                "WHERE b.sale_num IS NULL OR b.sale_num <> ISNULL(s.total, 0); " +
+                "UPDATE [SaleNumWatermark] SET last_order_id = @w WHERE id = 1; " +
+                "COMMIT; " +
+                "SELECT bid FROM @fixed";
+        return jdbcTemplate.query(sql, (rs, rowNum) -> rs.getInt("bid"));
     }
 
     // 获取所有图书（按销量排序，分页）
     //添加cover_url字段
-    public List<Map<String, Object>> getAllBooksByPage(int offset, int pageSize) {
+    public List<BookRow> getAllBooksByPage(int offset, int pageSize) {
         String sql = "SELECT bid, book_name, author, price, stock_num, sale_num, book_type, cover_url FROM Book WHERE stock_num >= 0 " +
                 "ORDER BY sale_num DESC, bid ASC " +
                 "OFFSET ? ROWS FETCH NEXT ? ROWS ONLY";
-        return jdbcTemplate.queryForList(sql, offset, pageSize);
+        return jdbcTemplate.query(sql, BOOK_ROW_MAPPER, offset, pageSize);
+    }
+
+    // 获取所有图书（keyset分页）：从上一页最后一行(sale_num, bid)之后往后取，不用OFFSET，深翻页也只扫一页的数据
+    // sale_num为NOT NULL（迁移V4），排序和比较都用原始列，从索引IX_Book_sale_num_bid的游标位置开始只读一页；
+    // 写成 sale_num <= ? AND (...) 让sale_num的范围可以直接作为索引查找条件
+    public List<BookRow> getAllBooksAfter(int lastSaleNum, int lastBid, int pageSize) {
+        String sql = "SELECT TOP (?) bid, book_name, author, price, stock_num, sale_num, book_type, cover_url FROM Book WHERE stock_num >= 0 " +
+                "AND sale_num <= ? AND (sale_num < ? OR bid > ?) " +
+                "ORDER BY sale_num DESC, bid ASC";
+        return jdbcTemplate.query(sql, BOOK_ROW_MAPPER, pageSize, lastSaleNum, lastSaleNum, lastBid);
     }
 
     // 获取图书总数
@@ -117,10 +452,42 @@ public class BookOrderMapper {
         return jdbcTemplate.queryForObject(sql, Integer.class);
     }
 
-    // 获取全部热销图书
+    // 获取全部热销图书（流式）：按(sale_num DESC, bid ASC)取一页，每读出一行就交给consumer，不在内存攒List
+    // lastSaleNum/lastBid非空时从该位置之后取TOP limit行（keyset，同getAllBooksAfter走IX_Book_sale_num_bid），
+    // 否则从offset开始（OFFSET只用于浅翻页）
     // 修改：添加cover_url字段
-    public List<Map<String, Object>> getAllHotBooks() {
-        String sql = "SELECT bid, book_name, author, price, stock_num, sale_num, book_type, cover_url FROM Book WHERE stock_num >= 0 ORDER BY sale_num DESC, bid ASC";
-        return jdbcTemplate.queryForList(sql);
+    public void streamAllHotBooks(Long lastSaleNum, Integer lastBid, int offset, int limit, Consumer<BookRow> consumer) {
+        StringBuilder sql = new StringBuilder();
+        List<Object> params = new ArrayList<>();
+        if (lastSaleNum != null && lastBid != null) {
+            sql.append("SELECT TOP (?) bid, book_name, author, price, stock_num, sale_num, book_type, cover_url FROM Book WHERE stock_num >= 0 ")
+                    .append("AND sale_num <= ? AND (sale_num < ? OR bid > ?) ")
+                    .append("ORDER BY sale_num DESC, bid ASC");
+            params.add(limit);
+            params.add(lastSaleNum);
+            params.add(lastSaleNum);
+            params.add(lastBid);
+        } else {
+            sql.append("SELECT bid, book_name, author, price, stock_num, sale_num, book_type, cover_url FROM Book WHERE stock_num >= 0 ")
+                    .append("ORDER BY sale_num DESC, bid ASC OFFSET ? ROWS FETCH NEXT ? ROWS ONLY");
+            params.add(offset);
+            params.add(limit);
+        }
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql.toString());
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            for (int i = 0; i < params.size(); i++) {
+                ps.setObject(i + 1, params.get(i));
+            }
+            return ps;
+        }, rs -> {
+            consumer.accept(BOOK_ROW_MAPPER.mapRow(rs, 0));
+        });
+    }
+
+    // 读取可空的整数列（getInt遇到NULL会返回0）
+    static Integer getInteger(ResultSet rs, String column) throws SQLException {
+        int value = rs.getInt(column);
+        return rs.wasNull() ? null : value;
     }
 }
\ No newline at end of file
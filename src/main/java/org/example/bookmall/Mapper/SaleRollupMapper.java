@@ -0,0 +1,139 @@
+package org.example.bookmall.Mapper;
+
+import org.example.bookmall.dto.SaleRange;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+//每日销量汇总表相关的sql语句
+//SaleDailyRollup：(sale_day, bid, state) → qty，按天预聚合OrderItem × [Order]；表和索引见db/migration/V2__sale_daily_rollup.sql
+//报表查询：已结束的整天读汇总表，其余时间段（首尾不足一天的部分、今天）实时统计，两部分UNION ALL后再按图书汇总
+//销售额 = 销量 × 图书当前价格，在报表查询时计算（与AdminMapper的实时统计口径一致，汇总表不冻结写入时的价格）
+@Repository
+public class SaleRollupMapper {
+    // 流式查询每次从数据库取回的行数
+    private static final int STREAM_FETCH_SIZE = 200;
+
+    // 报表数据源：汇总表[dayFrom, dayTo) + 实时 [liveFrom, liveCut) ∪ [liveTail, liveTo]，参数共6个
+    private static final String SALE_SOURCE =
+            "SELECT r.bid, r.qty FROM SaleDailyRollup r " +
+            "WHERE r.state = 2 AND r.sale_day >= ? AND r.sale_day < ? " +
+            "UNION ALL " +
+            "SELECT oi.bid, oi.num FROM [Order] o " +
+            "INNER JOIN OrderItem oi ON oi.order_id = o.order_id " +
+            "WHERE o.state = 2 " +
+            "AND ((o.sale_time >= ? AND o.sale_time < ?) OR (o.sale_time >= ? AND o.sale_time <= ?))";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    //汇总表是否已建（由迁移脚本创建，应用不执行DDL）
+    public boolean rollupTableExists() {
+        Integer exists = jdbcTemplate.queryForObject(
+                "SELECT CASE WHEN OBJECT_ID(N'dbo.SaleDailyRollup', N'U') IS NULL THEN 0 ELSE 1 END", Integer.class);
+        return exists != null && exists == 1;
+    }
+
+    //数据库当前日期（sale_time由数据库默认值生成，“今天”以数据库时钟为准）
+    public LocalDate getCurrentDate() {
+        return jdbcTemplate.queryForObject("SELECT CAST(GETDATE() AS DATE)", Date.class).toLocalDate();
+    }
+
+    //汇总表中最后一天（表为空返回null）
+    public LocalDate getLastRollupDay() {
+        Date day = jdbcTemplate.queryForObject("SELECT MAX(sale_day) FROM SaleDailyRollup", Date.class);
+        return day == null ? null : day.toLocalDate();
+    }
+
+    //最早的订单日期（无订单返回null）
+    public LocalDate getFirstOrderDay() {
+        Date day = jdbcTemplate.queryForObject("SELECT CAST(MIN(sale_time) AS DATE) FROM [Order]", Date.class);
+        return day == null ? null : day.toLocalDate();
+    }
+
+    //增量累加一个订单（订单提交后调用）；HOLDLOCK防止并发MERGE同一(天,书,状态)时重复插入
+    public int mergeOrder(Integer orderId) {
+        String sql = "MERGE SaleDailyRollup WITH (HOLDLOCK) AS t " +
+                "USING (SELECT CAST(o.sale_time AS DATE) AS sale_day, oi.bid, ISNULL(o.state, -1) AS state, " +
+                "SUM(oi.num) AS qty " +
+                "FROM [Order] o " +
+                "INNER JOIN OrderItem oi ON oi.order_id = o.order_id " +
+                "INNER JOIN Book b ON b.bid = oi.bid " +
+                "WHERE o.order_id = ? " +
+                "GROUP BY CAST(o.sale_time AS DATE), oi.bid, ISNULL(o.state, -1)) AS s " +
+                "ON t.sale_day = s.sale_day AND t.bid = s.bid AND t.state = s.state " +
+                "WHEN MATCHED THEN UPDATE SET t.qty = t.qty + s.qty " +
+                "WHEN NOT MATCHED THEN INSERT (sale_day, bid, state, qty) " +
+                "VALUES (s.sale_day, s.bid, s.state, s.qty);";
+        return jdbcTemplate.update(sql, orderId);
+    }
+
+    //重建[fromDay, toDay)的汇总数据（先删后插，调用方放在同一事务里）
+    public int rebuildDays(LocalDate fromDay, LocalDate toDay) {
+        jdbcTemplate.update("DELETE FROM SaleDailyRollup WHERE sale_day >= ? AND sale_day < ?",
+                Date.valueOf(fromDay), Date.valueOf(toDay));
+        String sql = "INSERT INTO SaleDailyRollup (sale_day, bid, state, qty) " +
+                "SELECT CAST(o.sale_time AS DATE), oi.bid, ISNULL(o.state, -1), SUM(oi.num) " +
+                "FROM [Order] o " +
+                "INNER JOIN OrderItem oi ON oi.order_id = o.order_id " +
+                "INNER JOIN Book b ON b.bid = oi.bid " +
+                "WHERE o.sale_time >= ? AND o.sale_time < ? " +
+                "GROUP BY CAST(o.sale_time AS DATE), oi.bid, ISNULL(o.state, -1)";
+        return jdbcTemplate.update(sql,
+                Timestamp.valueOf(fromDay.atStartOfDay()), Timestamp.valueOf(toDay.atStartOfDay()));
+    }
+
+    //销量统计（字段与AdminMapper.statAdminSaleData一致）
+    public List<Map<String, Object>> statSaleData(SaleRange range) {
+        String sql = "SELECT b.bid AS bookId, b.book_name AS bookName, b.author, b.cover_url, " +
+                "SUM(s.qty) AS totalSale, COALESCE(SUM(s.qty * b.price), 0) AS totalRevenue " +
+                "FROM (" + SALE_SOURCE + ") s " +
+                "INNER JOIN Book b ON b.bid = s.bid " +
+                "GROUP BY b.bid, b.book_name, b.author, b.cover_url " +
+                "HAVING SUM(s.qty) > 0 " +
+                "ORDER BY totalSale DESC";
+        return jdbcTemplate.queryForList(sql, range.toParams());
+    }
+
+    //导出报表（字段与AdminMapper.exportAdminSaleReport一致）
+    public List<Map<String, Object>> exportSaleReport(SaleRange range) {
+        return jdbcTemplate.queryForList(exportSql(), range.toParams());
+    }
+
+    //流式导出报表：每读出一行就交给consumer
+    public void streamSaleReport(SaleRange range, Consumer<Map<String, Object>> consumer) {
+        ColumnMapRowMapper rowMapper = new ColumnMapRowMapper();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(exportSql());
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            Object[] params = range.toParams();
+            for (int i = 0; i < params.length; i++) {
+                ps.setObject(i + 1, params[i]);
+            }
+            return ps;
+        }, (RowCallbackHandler) rs -> consumer.accept(rowMapper.mapRow(rs, rs.getRow())));
+    }
+
+    private static String exportSql() {
+        return "SELECT b.bid AS bookId, b.book_name AS bookName, b.author, b.price, " +
+                "b.sale_num AS saleNum, b.stock_num AS stockNum, b.cover_url, " +
+                "SUM(s.qty) AS totalSale, COALESCE(SUM(s.qty * b.price), 0) AS totalRevenue, " +
+                "ROW_NUMBER() OVER (ORDER BY SUM(s.qty) DESC) AS rank " +
+                "FROM (" + SALE_SOURCE + ") s " +
+                "INNER JOIN Book b ON b.bid = s.bid " +
+                "WHERE b.stock_num != -1 " +
+                "GROUP BY b.bid, b.book_name, b.author, b.price, b.sale_num, b.stock_num, b.cover_url " +
+                "HAVING SUM(s.qty) > 0 " +
+                "ORDER BY totalSale DESC";
+    }
+}
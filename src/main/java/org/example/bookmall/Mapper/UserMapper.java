@@ -1,27 +1,48 @@
 package org.example.bookmall.Mapper;
 
+import org.example.bookmall.dto.UserRow;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.StringUtils;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.function.BiConsumer;
 
 //用户相关的sql语句，Service层来调用
 @Repository//标记这是数据库操作类，Spring自动管理
 public class UserMapper {
+    // [User]表一行 → UserRow（按列名取值）
+    static final RowMapper<UserRow> USER_ROW_MAPPER = (rs, rowNum) -> new UserRow(
+            BookOrderMapper.getInteger(rs, "user_id"),
+            rs.getString("login_name"),
+            rs.getString("password"),
+            rs.getString("phonenumber"),
+            BookOrderMapper.getInteger(rs, "is_admin"));
+    // 不含密码的用户信息（缓存用），password为null
+    static final RowMapper<UserRow> USER_PROFILE_MAPPER = (rs, rowNum) -> new UserRow(
+            BookOrderMapper.getInteger(rs, "user_id"),
+            rs.getString("login_name"),
+            null,
+            rs.getString("phonenumber"),
+            BookOrderMapper.getInteger(rs, "is_admin"));
+    // UserRow需要的列
+    private static final String USER_COLUMNS = "user_id, login_name, password, phonenumber, is_admin";
+    private static final String USER_PROFILE_COLUMNS = "user_id, login_name, phonenumber, is_admin";
+
     @Autowired//Spring的自动注入注解：自动创建JdbcTemplate对象，不用手动new一个
     //JdbcTemplate：连接数据库、执行SQL语句、获取结果，而我们只需调用他的update()(执行增删改查)，
     //queryForList()(执行查询)方法即可
     private JdbcTemplate jdbcTemplate;
 
     //SQL:查询用户
-    public List<Map<String, Object>> getUser(String loginName) {
-        String sql = "SELECT * FROM [User] WHERE login_name=?";
-        // 用JdbcTemplate查询，自动映射到User实体
-        return jdbcTemplate.queryForList(sql, loginName);
+    public List<UserRow> getUser(String loginName) {
+        String sql = "SELECT " + USER_COLUMNS + " FROM [User] WHERE login_name=?";
+        // 用JdbcTemplate查询，映射到UserRow
+        return jdbcTemplate.query(sql, USER_ROW_MAPPER, loginName);
     }
 
     //SQL:新增用户（注册）
@@ -34,17 +55,16 @@ public class UserMapper {
     }
 
     //SQL：用户登录校验
-    public List<Map<String, Object>> checkLogin(String loginName, String password) {
-        String sql = "SELECT * FROM[User] WHERE login_name=? AND password=? AND is_admin=0";
-        //返回符合条件的列表。校验成功：List里有一个Map对象，失败：List为空
-        // sql查询到的数据转换成Map，在把所有行放到List里。
-        return jdbcTemplate.queryForList(sql, loginName, password);
+    public List<UserRow> checkLogin(String loginName, String password) {
+        String sql = "SELECT " + USER_COLUMNS + " FROM[User] WHERE login_name=? AND password=? AND is_admin=0";
+        //返回符合条件的列表。校验成功：List里有一个UserRow，失败：List为空
+        return jdbcTemplate.query(sql, USER_ROW_MAPPER, loginName, password);
     }
 
     //SQL：检查登录名是否存在
-    public List<Map<String, Object>> checkLoginNameExist(String loginName) {
+    public List<Integer> checkLoginNameExist(String loginName) {
         String sql = "SELECT user_id FROM [User] WHERE login_name = ?";
-        return jdbcTemplate.queryForList(sql, loginName);
+        return jdbcTemplate.queryForList(sql, Integer.class, loginName);
     }
 
     //SQL：用户修改个人信息
@@ -81,9 +101,41 @@ public class UserMapper {
     }
 
     //SQL:用户查询个人信息
-    //数据库里的记录：列名→值，对应Map里key→value
-    public List<Map<String, Object>> getUserById(Integer userId) {
-        String sql = "SELECT * FROM[User] WHERE user_id=?";
-        return jdbcTemplate.queryForList(sql, userId);
+    public List<UserRow> getUserById(Integer userId) {
+        String sql = "SELECT " + USER_COLUMNS + " FROM[User] WHERE user_id=?";
+        return jdbcTemplate.query(sql, USER_ROW_MAPPER, userId);
+    }
+
+    //SQL:按用户id查询不含密码的用户信息（UserCache加载用），不存在返回null
+    public UserRow getUserProfileById(Integer userId) {
+        String sql = "SELECT " + USER_PROFILE_COLUMNS + " FROM[User] WHERE user_id=?";
+        List<UserRow> rows = jdbcTemplate.query(sql, USER_PROFILE_MAPPER, userId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    //SQL:用户总数（UserKeyFilter估算容量用）
+    public int countUsers() {
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM [User]", Integer.class);
+        return count == null ? 0 : count;
+    }
+
+    //SQL:User表上是否有只含该列的唯一索引/唯一约束，过滤索引也算（UserKeyFilter据此决定能否跳过唯一性查询）
+    public boolean hasUniqueIndex(String column) {
+        String sql = "SELECT COUNT(*) FROM sys.indexes i " +
+                "WHERE i.object_id = OBJECT_ID('[dbo].[User]') AND i.is_unique = 1 " +
+                "AND (SELECT COUNT(*) FROM sys.index_columns ic WHERE ic.object_id = i.object_id " +
+                "AND ic.index_id = i.index_id AND ic.key_ordinal > 0) = 1 " +
+                "AND EXISTS (SELECT 1 FROM sys.index_columns ic INNER JOIN sys.columns c " +
+                "ON c.object_id = ic.object_id AND c.column_id = ic.column_id " +
+                "WHERE ic.object_id = i.object_id AND ic.index_id = i.index_id AND ic.key_ordinal > 0 AND c.name = ?)";
+        Integer count = jdbcTemplate.queryForObject(sql, Integer.class, column);
+        return count != null && count > 0;
+    }
+
+    //SQL:逐行读取所有用户的登录名和手机号（UserKeyFilter构建用，不把全表放进List）
+    public void forEachUserKey(BiConsumer<String, String> action) {
+        String sql = "SELECT login_name, phonenumber FROM [User]";
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs ->
+                action.accept(rs.getString("login_name"), rs.getString("phonenumber")));
     }
 }
@@ -0,0 +1,189 @@
+package org.example.bookmall.auth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 无状态登录令牌（bookmall.auth.mode=token时使用，替代HttpSession里的LOGIN_USER/LOGIN_ADMIN）
+ * 令牌格式：kid.payload.signature
+ * - payload = base64url("角色:用户ID:过期时间(秒)")，signature = base64url(HMAC-SHA256(kid.payload))
+ * - 校验只做一次HMAC，不查库、不用服务端会话，任意节点都能校验，负载均衡不需要会话粘滞
+ * 密钥轮换：bookmall.auth.keys=kid1:base64密钥,kid2:base64密钥
+ * - 第一个密钥用于签发新令牌，其余的只用于校验（轮换时把新密钥放到最前面，旧密钥保留到旧令牌过期再删）
+ * 令牌放在HttpOnly Cookie里（前端页面不用改），也接受 Authorization: Bearer 请求头
+ */
+@Component
+public class SessionTokenService {
+    private static final Logger logger = LoggerFactory.getLogger(SessionTokenService.class);
+
+    public static final String ROLE_USER = "U";
+    public static final String ROLE_ADMIN = "A";
+    // 用户端和管理端分开两个Cookie，可以同时登录（与原来Session里的两个属性对应）
+    private static final String USER_COOKIE = "BOOKMALL_USER";
+    private static final String ADMIN_COOKIE = "BOOKMALL_ADMIN";
+    private static final String HMAC = "HmacSHA256";
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final boolean tokenMode;
+    private final long ttlSeconds;
+    // kid → 密钥，第一个是签发用的密钥
+    private final Map<String, SigningKey> keys = new LinkedHashMap<>();
+    private final String activeKid;
+
+    @Autowired
+    public SessionTokenService(@Value("${bookmall.auth.mode:session}") String mode,
+                               @Value("${bookmall.auth.keys:}") String keySpec,
+                               @Value("${bookmall.auth.token-ttl-ms:7200000}") long ttlMillis) {
+        this.tokenMode = "token".equalsIgnoreCase(mode.trim());
+        this.ttlSeconds = Math.max(1, ttlMillis / 1000);
+        for (String item : StringUtils.commaDelimitedListToStringArray(keySpec)) {
+            int colon = item.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("bookmall.auth.keys格式应为 kid:base64密钥，实际：" + item.trim());
+            }
+            String kid = item.substring(0, colon).trim();
+            byte[] secret = Base64.getDecoder().decode(item.substring(colon + 1).trim());
+            if (secret.length < 32) {
+                throw new IllegalArgumentException("bookmall.auth.keys中密钥" + kid + "太短，至少32字节");
+            }
+            keys.put(kid, new SigningKey(secret));
+        }
+        if (keys.isEmpty()) {
+            // 没配密钥：随机生成一个，只在单节点、重启前有效
+            byte[] secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+            keys.put("local", new SigningKey(secret));
+            if (tokenMode) {
+                logger.warn("未配置bookmall.auth.keys，使用随机密钥：多节点之间令牌不通用，重启后需要重新登录");
+            }
+        }
+        this.activeKid = keys.keySet().iterator().next();
+    }
+
+    // 是否使用令牌登录（否则沿用HttpSession）
+    public boolean isTokenMode() {
+        return tokenMode;
+    }
+
+    // 签发令牌
+    public String issue(String role, Integer userId) {
+        long expiresAt = System.currentTimeMillis() / 1000 + ttlSeconds;
+        String payload = ENCODER.encodeToString((role + ":" + userId + ":" + expiresAt).getBytes(StandardCharsets.UTF_8));
+        String signed = activeKid + "." + payload;
+        return signed + "." + ENCODER.encodeToString(keys.get(activeKid).sign(signed));
+    }
+
+    // 校验令牌：签名正确、角色一致且未过期返回用户ID，否则返回null
+    public Integer verify(String token, String role) {
+        if (token == null) {
+            return null;
+        }
+        int first = token.indexOf('.');
+        int last = token.lastIndexOf('.');
+        if (first <= 0 || last <= first) {
+            return null;
+        }
+        SigningKey key = keys.get(token.substring(0, first));
+        if (key == null) {
+            // 密钥已下线（或伪造的kid）
+            return null;
+        }
+        try {
+            byte[] signature = DECODER.decode(token.substring(last + 1));
+            if (!MessageDigest.isEqual(signature, key.sign(token.substring(0, last)))) {
+                return null;
+            }
+            String[] claims = new String(DECODER.decode(token.substring(first + 1, last)), StandardCharsets.UTF_8)
+                    .split(":");
+            if (claims.length != 3 || !claims[0].equals(role)
+                    || Long.parseLong(claims[2]) < System.currentTimeMillis() / 1000) {
+                return null;
+            }
+            return Integer.valueOf(claims[1]);
+        } catch (IllegalArgumentException e) {
+            // base64或数字格式不对
+            return null;
+        }
+    }
+
+    // 从请求中取令牌并校验（先看Authorization请求头，再看Cookie）
+    public Integer authenticate(HttpServletRequest request, String role) {
+        String header = request.getHeader("Authorization");
+        if (header != null && header.startsWith("Bearer ")) {
+            return verify(header.substring(7).trim(), role);
+        }
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            String name = cookieName(role);
+            for (Cookie cookie : cookies) {
+                if (name.equals(cookie.getName())) {
+                    return verify(cookie.getValue(), role);
+                }
+            }
+        }
+        return null;
+    }
+
+    // 登录成功：签发令牌写入Cookie，同时返回令牌（非浏览器客户端放到Authorization头里）
+    public String login(HttpServletResponse response, String role, Integer userId) {
+        String token = issue(role, userId);
+        writeCookie(response, cookieName(role), token, (int) ttlSeconds);
+        return token;
+    }
+
+    // 退出/登录失败：清掉Cookie
+    public void logout(HttpServletResponse response, String role) {
+        writeCookie(response, cookieName(role), "", 0);
+    }
+
+    private static String cookieName(String role) {
+        return ROLE_ADMIN.equals(role) ? ADMIN_COOKIE : USER_COOKIE;
+    }
+
+    // Servlet的Cookie API不支持SameSite，直接写Set-Cookie头
+    private static void writeCookie(HttpServletResponse response, String name, String value, int maxAge) {
+        response.addHeader("Set-Cookie", name + "=" + value + "; Max-Age=" + maxAge
+                + "; Path=/; HttpOnly; SameSite=Lax");
+    }
+
+    // 一个HMAC密钥；Mac不是线程安全的，每个线程各用一个实例
+    private static final class SigningKey {
+        private final ThreadLocal<Mac> mac;
+
+        private SigningKey(byte[] secret) {
+            SecretKeySpec spec = new SecretKeySpec(secret, HMAC);
+            this.mac = ThreadLocal.withInitial(() -> {
+                try {
+                    Mac instance = Mac.getInstance(HMAC);
+                    instance.init(spec);
+                    return instance;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException("无法初始化" + HMAC, e);
+                }
+            });
+        }
+
+        private byte[] sign(String data) {
+            return mac.get().doFinal(data.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
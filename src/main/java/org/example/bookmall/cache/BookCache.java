@@ -0,0 +1,175 @@
+package org.example.bookmall.cache;
+
+import org.example.bookmall.Mapper.BookOrderMapper;
+import org.example.bookmall.dto.BookRow;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 图书进程内缓存（按bid缓存BookRow，LRU淘汰，容量有上限）
+ * 读：命中直接返回；未命中查一次BookOrderMapper.getBookById并放入缓存
+ * 写：图书信息/库存/封面/下架变更后由调用方invalidate，下次读取重新加载
+ */
+@Component
+public class BookCache {
+
+    private final BookOrderMapper bookOrderMapper;
+    private final int maxSize;
+
+    // accessOrder=true：按访问顺序排列，最久未访问的在队头，超出容量时淘汰
+    private final LinkedHashMap<Integer, BookRow> entries;
+    // 正在加载的key → 加载令牌；加载期间被invalidate会移除令牌，加载结果就不再放入缓存（防止旧数据回填）
+    private final Map<Integer, Object> pendingLoads = new HashMap<>();
+
+    // 统计计数器
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    @Autowired
+    public BookCache(BookOrderMapper bookOrderMapper,
+                     @Value("${bookmall.cache.book.max-size:2000}") int maxSize) {
+        this.bookOrderMapper = bookOrderMapper;
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<Integer, BookRow>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, BookRow> eldest) {
+                if (size() > BookCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // 按bid取图书，不存在返回null（不存在的结果不缓存）
+    public BookRow get(Integer bookId) {
+        if (bookId == null) {
+            return null;
+        }
+        Object token;
+        synchronized (this) {
+            BookRow cached = entries.get(bookId);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+            misses.increment();
+            token = pendingLoads.computeIfAbsent(bookId, k -> new Object());
+        }
+        // 查库放在锁外，避免慢查询阻塞其他图书的读取
+        BookRow loaded = bookOrderMapper.getBookById(bookId);
+        synchronized (this) {
+            if (pendingLoads.remove(bookId, token) && loaded != null) {
+                entries.put(bookId, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    // 批量取图书：命中的直接返回，未命中的用一条IN查询一次性加载
+    // 返回 bid → BookRow，不存在的bid不在结果中
+    public Map<Integer, BookRow> getAll(Collection<Integer> bookIds) {
+        Map<Integer, BookRow> result = new HashMap<>();
+        if (bookIds == null || bookIds.isEmpty()) {
+            return result;
+        }
+        List<Integer> missing = new ArrayList<>();
+        Map<Integer, Object> tokens = new HashMap<>();
+        synchronized (this) {
+            for (Integer bookId : new LinkedHashSet<>(bookIds)) {
+                if (bookId == null) {
+                    continue;
+                }
+                BookRow cached = entries.get(bookId);
+                if (cached != null) {
+                    hits.increment();
+                    result.put(bookId, cached);
+                } else {
+                    misses.increment();
+                    missing.add(bookId);
+                    tokens.put(bookId, pendingLoads.computeIfAbsent(bookId, k -> new Object()));
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+        List<BookRow> loaded = bookOrderMapper.getBooksByIds(missing);
+        synchronized (this) {
+            for (BookRow row : loaded) {
+                result.put(row.getBid(), row);
+                if (pendingLoads.remove(row.getBid(), tokens.get(row.getBid()))) {
+                    entries.put(row.getBid(), row);
+                }
+            }
+            // 库中不存在的bid，清理加载令牌
+            for (Integer bookId : missing) {
+                pendingLoads.remove(bookId, tokens.get(bookId));
+            }
+        }
+        return result;
+    }
+
+    // 立即失效某本书
+    public synchronized void invalidate(Integer bookId) {
+        if (bookId == null) {
+            return;
+        }
+        entries.remove(bookId);
+        pendingLoads.remove(bookId);
+        invalidations.increment();
+    }
+
+    // 事务内修改图书时使用：立即失效，并在事务提交后再失效一次
+    // （防止提交前被其他线程读到旧值重新放入缓存）
+    public void invalidateAfterCommit(Integer bookId) {
+        invalidate(bookId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    invalidate(bookId);
+                }
+            });
+        }
+    }
+
+    // 清空缓存
+    public synchronized void invalidateAll() {
+        entries.clear();
+        pendingLoads.clear();
+        invalidations.increment();
+    }
+
+    // 缓存统计：命中/未命中/淘汰/失效次数
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        synchronized (this) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxSize", maxSize);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("evictions", evictions.sum());
+        stats.put("invalidations", invalidations.sum());
+        stats.put("hitRate", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        return stats;
+    }
+}
@@ -0,0 +1,417 @@
+package org.example.bookmall.cache;
+
+import org.example.bookmall.Mapper.BookOrderMapper;
+import org.example.bookmall.dto.BookRow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 图书内存索引（替代 LIKE '%kw%' 全表扫描和管理端按条件的动态SQL）
+ * 书名/作者按字符n-gram建倒排表：中文书名没有空格分词，直接按单字 + 相邻两字（bigram）建索引
+ * - 1个字的关键词：查单字倒排表
+ * - ≥2个字的关键词：取关键词所有bigram的倒排表求交集，再用contains校验一遍去掉误命中
+ * 管理端多条件查询另有：
+ * - 每个分类一个位图（bid为下标）
+ * - 按(价格, bid)排序的数组，价格区间用二分查找定位
+ * 各条件的结果都转成位图后求交集
+ * 启动时从Book表全量构建；图书新增/修改/下架/改库存后调用refresh增量更新
+ * 索引包含全部图书（管理端要查到已下架的），用户端搜索只返回未下架（stock_num != -1）的图书
+ */
+@Component
+public class BookIndex {
+    private static final Logger logger = LoggerFactory.getLogger(BookIndex.class);
+
+    private final BookOrderMapper bookOrderMapper;
+    private final BookCache bookCache;
+
+    // bid → 已索引的字段，用于删除旧索引和校验误命中
+    private final Map<Integer, IndexedBook> docs = new HashMap<>();
+    // gram → 包含该gram的bid集合
+    private final Map<String, Set<Integer>> namePostings = new HashMap<>();
+    private final Map<String, Set<Integer>> authorPostings = new HashMap<>();
+    // 全部已索引的图书 / 未下架的图书
+    private final BitSet allBooks = new BitSet();
+    private final BitSet listedBooks = new BitSet();
+    // 分类（小写）→ 该分类的图书
+    private final Map<String, BitSet> typeBitmaps = new HashMap<>();
+    // 按(价格, bid)升序排列的价格数组，priceBids[i]是prices[i]对应的图书；价格为空的图书不在其中
+    private BigDecimal[] prices = new BigDecimal[0];
+    private int[] priceBids = new int[0];
+    private int priceCount = 0;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // 索引是否已构建完成（未完成时调用方回退到SQL查询）
+    private volatile boolean ready = false;
+
+    @Autowired
+    public BookIndex(BookOrderMapper bookOrderMapper, BookCache bookCache) {
+        this.bookOrderMapper = bookOrderMapper;
+        this.bookCache = bookCache;
+    }
+
+    // 应用启动完成后全量构建索引
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        try {
+            List<BookRow> books = bookOrderMapper.getAllBookRows();
+            lock.writeLock().lock();
+            try {
+                docs.clear();
+                namePostings.clear();
+                authorPostings.clear();
+                allBooks.clear();
+                listedBooks.clear();
+                typeBitmaps.clear();
+                prices = new BigDecimal[books.size()];
+                priceBids = new int[books.size()];
+                priceCount = 0;
+                for (BookRow book : books) {
+                    add(book);
+                }
+                ready = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            logger.info("图书索引构建完成：共{}本，未下架{}本", docs.size(), listedBooks.cardinality());
+        } catch (Exception e) {
+            // 构建失败不影响启动，搜索回退到SQL
+            logger.error("图书索引构建失败，搜索将使用SQL查询", e);
+        }
+    }
+
+    // 图书变更后重新索引（调用方需先失效BookCache，这里会从缓存重新加载最新数据）
+    public void refresh(Integer bookId) {
+        if (bookId == null) {
+            return;
+        }
+        BookRow book = bookCache.get(bookId);
+        lock.writeLock().lock();
+        try {
+            remove(bookId);
+            if (book != null) {
+                add(book);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // 用户端：按关键词搜索未下架图书的书名或作者，返回命中的bid（无序）；索引未就绪返回null
+    public List<Integer> search(String keyword) {
+        if (!ready) {
+            return null;
+        }
+        String kw = normalize(keyword);
+        if (kw.isEmpty()) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            BitSet hits = match(namePostings, kw, true);
+            hits.or(match(authorPostings, kw, false));
+            hits.and(listedBooks);
+            return toList(hits);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 管理端多条件查询（条件与AdminMapper.selectBooksByCondition一致，为null/空的条件不参与过滤）
+    // 返回按bid升序的图书id；索引未就绪返回null
+    public List<Integer> query(Integer bookId, String bookName, String author, String bookType,
+                               BigDecimal minPrice, BigDecimal maxPrice) {
+        if (!ready) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            BitSet result = (BitSet) allBooks.clone();
+            if (bookId != null) {
+                boolean exists = bookId >= 0 && result.get(bookId);
+                result.clear();
+                if (exists) {
+                    result.set(bookId);
+                }
+            }
+            if (bookType != null && !bookType.isEmpty()) {
+                BitSet typed = typeBitmaps.get(normalize(bookType));
+                if (typed == null) {
+                    return Collections.emptyList();
+                }
+                result.and(typed);
+            }
+            if (minPrice != null || maxPrice != null) {
+                result.and(priceRange(minPrice, maxPrice));
+            }
+            if (bookName != null && !bookName.isEmpty()) {
+                result.and(match(namePostings, normalize(bookName), true));
+            }
+            if (author != null && !author.isEmpty()) {
+                result.and(match(authorPostings, normalize(author), false));
+            }
+            return toList(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // ---------------- 内部方法（调用方已持有写锁/读锁） ----------------
+
+    private void add(BookRow book) {
+        int bid = book.getBid();
+        IndexedBook doc = new IndexedBook(normalize(book.getBookName()), normalize(book.getAuthor()),
+                book.getBookType() == null ? null : normalize(book.getBookType()), book.getPrice());
+        docs.put(bid, doc);
+        for (String gram : grams(doc.name)) {
+            namePostings.computeIfAbsent(gram, k -> new HashSet<>()).add(bid);
+        }
+        for (String gram : grams(doc.author)) {
+            authorPostings.computeIfAbsent(gram, k -> new HashSet<>()).add(bid);
+        }
+        allBooks.set(bid);
+        if (isListed(book)) {
+            listedBooks.set(bid);
+        }
+        if (doc.type != null) {
+            typeBitmaps.computeIfAbsent(doc.type, k -> new BitSet()).set(bid);
+        }
+        if (doc.price != null) {
+            insertPrice(doc.price, bid);
+        }
+    }
+
+    private void remove(Integer bookId) {
+        IndexedBook old = docs.remove(bookId);
+        if (old == null) {
+            return;
+        }
+        removePostings(namePostings, grams(old.name), bookId);
+        removePostings(authorPostings, grams(old.author), bookId);
+        allBooks.clear(bookId);
+        listedBooks.clear(bookId);
+        if (old.type != null) {
+            BitSet typed = typeBitmaps.get(old.type);
+            typed.clear(bookId);
+            if (typed.isEmpty()) {
+                typeBitmaps.remove(old.type);
+            }
+        }
+        if (old.price != null) {
+            removePrice(old.price, bookId);
+        }
+    }
+
+    private static void removePostings(Map<String, Set<Integer>> postings, Set<String> grams, Integer bookId) {
+        for (String gram : grams) {
+            Set<Integer> ids = postings.get(gram);
+            if (ids != null) {
+                ids.remove(bookId);
+                if (ids.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    // 求关键词所有gram倒排表的交集（从最短的表开始），再校验原文确实包含关键词
+    private BitSet match(Map<String, Set<Integer>> postings, String kw, boolean byName) {
+        BitSet hits = new BitSet();
+        if (kw.isEmpty()) {
+            // 与 LIKE '%%' 一致：匹配全部
+            hits.or(allBooks);
+            return hits;
+        }
+        List<Set<Integer>> lists = new ArrayList<>();
+        for (String gram : queryGrams(kw)) {
+            Set<Integer> ids = postings.get(gram);
+            if (ids == null) {
+                return hits; // 任一gram无命中，整体无命中
+            }
+            lists.add(ids);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        for (Integer bookId : lists.get(0)) {
+            boolean inAll = true;
+            for (int i = 1; i < lists.size() && inAll; i++) {
+                inAll = lists.get(i).contains(bookId);
+            }
+            if (!inAll) {
+                continue;
+            }
+            IndexedBook doc = docs.get(bookId);
+            String field = byName ? doc.name : doc.author;
+            if (kw.length() <= 2 || field.contains(kw)) {
+                hits.set(bookId);
+            }
+        }
+        return hits;
+    }
+
+    // 价格在[minPrice, maxPrice]内的图书（任一端为null表示不限）
+    private BitSet priceRange(BigDecimal minPrice, BigDecimal maxPrice) {
+        int from = minPrice == null ? 0 : lowerBound(minPrice);
+        int to = maxPrice == null ? priceCount : upperBound(maxPrice);
+        BitSet hits = new BitSet();
+        for (int i = from; i < to; i++) {
+            hits.set(priceBids[i]);
+        }
+        return hits;
+    }
+
+    // 第一个价格 >= price 的位置
+    private int lowerBound(BigDecimal price) {
+        int lo = 0;
+        int hi = priceCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (prices[mid].compareTo(price) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // 第一个价格 > price 的位置
+    private int upperBound(BigDecimal price) {
+        int lo = 0;
+        int hi = priceCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (prices[mid].compareTo(price) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // (price, bid)在排序数组中的位置；不存在时返回 -(插入位置) - 1
+    private int pricePosition(BigDecimal price, int bid) {
+        int lo = 0;
+        int hi = priceCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = prices[mid].compareTo(price);
+            if (cmp == 0) {
+                cmp = Integer.compare(priceBids[mid], bid);
+            }
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -lo - 1;
+    }
+
+    private void insertPrice(BigDecimal price, int bid) {
+        int pos = pricePosition(price, bid);
+        if (pos >= 0) {
+            return;
+        }
+        pos = -pos - 1;
+        if (priceCount == prices.length) {
+            int capacity = Math.max(16, prices.length * 2);
+            prices = Arrays.copyOf(prices, capacity);
+            priceBids = Arrays.copyOf(priceBids, capacity);
+        }
+        System.arraycopy(prices, pos, prices, pos + 1, priceCount - pos);
+        System.arraycopy(priceBids, pos, priceBids, pos + 1, priceCount - pos);
+        prices[pos] = price;
+        priceBids[pos] = bid;
+        priceCount++;
+    }
+
+    private void removePrice(BigDecimal price, int bid) {
+        int pos = pricePosition(price, bid);
+        if (pos < 0) {
+            return;
+        }
+        System.arraycopy(prices, pos + 1, prices, pos, priceCount - pos - 1);
+        System.arraycopy(priceBids, pos + 1, priceBids, pos, priceCount - pos - 1);
+        priceCount--;
+        prices[priceCount] = null;
+    }
+
+    private static List<Integer> toList(BitSet bits) {
+        List<Integer> ids = new ArrayList<>(bits.cardinality());
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            ids.add(i);
+        }
+        return ids;
+    }
+
+    // 文档的gram：全部单字 + 全部相邻两字
+    static Set<String> grams(String text) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i < text.length(); i++) {
+            grams.add(text.substring(i, i + 1));
+            if (i + 2 <= text.length()) {
+                grams.add(text.substring(i, i + 2));
+            }
+        }
+        return grams;
+    }
+
+    // 查询的gram：1个字查单字，否则查全部相邻两字
+    static Set<String> queryGrams(String kw) {
+        if (kw.length() == 1) {
+            return Collections.singleton(kw);
+        }
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + 2 <= kw.length(); i++) {
+            grams.add(kw.substring(i, i + 2));
+        }
+        return grams;
+    }
+
+    // 统一小写，与SQL Server默认不区分大小写的LIKE/等值比较一致
+    static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isListed(BookRow book) {
+        return book.getStockNum() == null || book.getStockNum() != -1;
+    }
+
+    // 已索引的字段
+    private static final class IndexedBook {
+        private final String name;
+        private final String author;
+        private final String type;      // 小写分类，无分类为null
+        private final BigDecimal price; // 无价格为null
+
+        private IndexedBook(String name, String author, String type, BigDecimal price) {
+            this.name = name;
+            this.author = author;
+            this.type = type;
+            this.price = price;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.example.bookmall.cache;
+
+import org.example.bookmall.Mapper.BookOrderMapper;
+import org.example.bookmall.event.OrderCreatedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * 热销榜（内存Top-K，替代每次请求都对OrderItem全表GROUP BY）
+ * - 启动时从OrderItem汇总一次每本书的销量
+ * - 下单事务提交后按订单明细增量累加（OrderCreatedEvent）
+ * - 定时与数据库重新汇总对账，修正多节点/异常导致的偏差
+ *   汇总以订单号水位为界（同StateSaleMatrix）：先读当前最大订单号，只汇总不超过它的订单；
+ *   订单号在水位以内的事件一律忽略，对账期间到达的事件先记下来，替换后补上水位以后的订单
+ * 读取只拿一个不可变快照，O(K)，不查库
+ */
+@Component
+public class HotBookLeaderboard {
+    private static final Logger logger = LoggerFactory.getLogger(HotBookLeaderboard.class);
+    // 榜单长度
+    private static final int TOP_K = 10;
+    // 榜单顺序：销量降序，销量相同按bid升序
+    private static final Comparator<Entry> ORDER = Comparator.comparingLong(Entry::getSaleNum).reversed()
+            .thenComparing(Entry::getBookId);
+
+    private final BookOrderMapper bookOrderMapper;
+
+    // bid → 累计销量（写操作都在synchronized内）
+    private final Map<Integer, Long> saleTotals = new HashMap<>();
+    // 当前榜单快照（不可变，按销量降序、bid升序）
+    private volatile List<Entry> top = Collections.emptyList();
+    private volatile boolean ready = false;
+    // 已汇总到的订单号水位：订单号不超过它的订单已包含在saleTotals里
+    private int loadedUpTo = 0;
+    // 对账期间到达的订单（替换后补上水位以后的）；不在对账时为null
+    private List<OrderCreatedEvent> addedDuringReconcile;
+    // 同一时间只允许一次对账
+    private final Object reconcileLock = new Object();
+
+    @Autowired
+    public HotBookLeaderboard(BookOrderMapper bookOrderMapper) {
+        this.bookOrderMapper = bookOrderMapper;
+    }
+
+    // 启动完成后初始化
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        reconcile();
+    }
+
+    // 定时对账：用数据库汇总到水位的结果替换内存计数，再补上对账期间到达的水位以后的订单
+    @Scheduled(initialDelayString = "${bookmall.hot-books.reconcile-ms:300000}",
+            fixedDelayString = "${bookmall.hot-books.reconcile-ms:300000}")
+    public void reconcile() {
+        synchronized (reconcileLock) {
+            synchronized (this) {
+                addedDuringReconcile = new ArrayList<>();
+            }
+            try {
+                int upTo = bookOrderMapper.getMaxOrderId();
+                Map<Integer, Long> totals = bookOrderMapper.getBookSaleTotals(upTo);
+                synchronized (this) {
+                    saleTotals.clear();
+                    saleTotals.putAll(totals);
+                    loadedUpTo = upTo;
+                    for (OrderCreatedEvent event : addedDuringReconcile) {
+                        if (event.getOrderId() > upTo) {
+                            for (Map.Entry<Integer, Integer> item : event.getBookNums().entrySet()) {
+                                saleTotals.merge(item.getKey(), (long) item.getValue(), Long::sum);
+                            }
+                        }
+                    }
+                    rebuildTop();
+                    ready = true;
+                }
+            } catch (Exception e) {
+                logger.error("热销榜对账失败，保留当前内存数据", e);
+            } finally {
+                synchronized (this) {
+                    addedDuringReconcile = null;
+                }
+            }
+        }
+    }
+
+    // 订单提交后累加销量；水位以内的订单已在汇总结果里，忽略
+    // 销量只增不减，榜外且本次没卖出的书不可能进榜，所以只需在“原榜单 + 本次卖出的书”里重新取Top-K，O(K)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onOrderCreated(OrderCreatedEvent event) {
+        synchronized (this) {
+            if (event.getOrderId() <= loadedUpTo) {
+                return;
+            }
+            if (addedDuringReconcile != null) {
+                addedDuringReconcile.add(event);
+            }
+            Map<Integer, Entry> candidates = new HashMap<>();
+            for (Entry entry : top) {
+                candidates.put(entry.getBookId(), entry);
+            }
+            for (Map.Entry<Integer, Integer> item : event.getBookNums().entrySet()) {
+                long total = saleTotals.merge(item.getKey(), (long) item.getValue(), Long::sum);
+                candidates.put(item.getKey(), new Entry(item.getKey(), total));
+            }
+            List<Entry> sorted = new ArrayList<>(candidates.values());
+            sorted.sort(ORDER);
+            top = Collections.unmodifiableList(new ArrayList<>(sorted.subList(0, Math.min(TOP_K, sorted.size()))));
+        }
+    }
+
+    // 当前榜单（按销量降序），未初始化完成返回null，调用方回退到SQL
+    public List<Entry> top() {
+        return ready ? top : null;
+    }
+
+    // 用大小为K的堆从全部计数中选出Top-K（堆顶是当前第K名，遇到更大的就替换）
+    private void rebuildTop() {
+        PriorityQueue<Entry> heap = new PriorityQueue<>(TOP_K + 1, ORDER.reversed());
+        for (Map.Entry<Integer, Long> e : saleTotals.entrySet()) {
+            heap.offer(new Entry(e.getKey(), e.getValue()));
+            if (heap.size() > TOP_K) {
+                heap.poll();
+            }
+        }
+        List<Entry> sorted = new ArrayList<>(heap);
+        sorted.sort(ORDER);
+        top = Collections.unmodifiableList(sorted);
+    }
+
+    // 榜单条目
+    public static final class Entry {
+        private final Integer bookId;
+        private final long saleNum;
+
+        private Entry(Integer bookId, long saleNum) {
+            this.bookId = bookId;
+            this.saleNum = saleNum;
+        }
+
+        public Integer getBookId() {
+            return bookId;
+        }
+
+        public long getSaleNum() {
+            return saleNum;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package org.example.bookmall.cache;
+
+import org.example.bookmall.Mapper.BookOrderMapper;
+import org.example.bookmall.dto.BookRow;
+import org.example.bookmall.event.OrderCreatedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 库存预警索引（替代每次请求都扫描Book表的 stock_num BETWEEN 1 AND 5）
+ * - 按(库存, bid)有序的跳表：查询“库存在[1, N]内的图书”只需定位到起点后顺序取k条，O(log n + k)，N可任意指定
+ * - 库存变化来源：下单扣库存（OrderCreatedEvent带扣减后的库存）、管理员修改库存/累加库存/下架/新增图书
+ * - 记录每本书库存降到预警阈值以内的时间，回到阈值以上时清除
+ * - 管理端可订阅（SSE），图书跌破阈值时主动推送，不必轮询
+ *   推送在单独的线程池里进行，不占用发布订单事件的线程；每个订阅者按顺序逐条发送，
+ *   单条发送超过SEND_TIMEOUT_MILLIS或积压超过MAX_PENDING条的订阅者视为卡住，断开连接（前端会自动重连）
+ * - 库存按可售库存计：热门图书的库存有一部分租到了内存（见StockReservationEngine），要加上内存余量
+ * - 定时与数据库对账，修正多节点/异常导致的偏差；读库之后才变化的图书以变化为准，不被旧快照覆盖
+ */
+@Component
+public class LowStockMonitor {
+    private static final Logger logger = LoggerFactory.getLogger(LowStockMonitor.class);
+    // SSE连接超时时间（毫秒），超时后前端EventSource会自动重连
+    private static final long SUBSCRIBE_TIMEOUT_MILLIS = 30 * 60 * 1000L;
+    // 单条推送的超时时间（毫秒）、每个订阅者最多积压的推送条数
+    private static final long SEND_TIMEOUT_MILLIS = 10_000L;
+    private static final int MAX_PENDING = 100;
+    // 推送线程数：每个订阅者同一时间最多占用一个线程
+    private static final int PUSH_THREADS = 4;
+
+    private final BookOrderMapper bookOrderMapper;
+    private final BookCache bookCache;
+    private final StockReservationEngine stockReservation;
+    private final int alertThreshold;
+
+    // 有序索引：key = 库存 × 2^32 + bid，按库存升序、bid升序
+    private final ConcurrentSkipListSet<Long> byStock = new ConcurrentSkipListSet<>();
+    // bid → 当前库存（更新索引时用来删除旧key）
+    private final Map<Integer, Integer> stockByBid = new ConcurrentHashMap<>();
+    // bid → 库存降到阈值以内的时间
+    private final Map<Integer, LocalDateTime> crossedAt = new ConcurrentHashMap<>();
+    // 每次更新递增的序号，以及每本书最后一次更新时的序号（对账时判断读库之后有没有变化）
+    private final AtomicLong updateSeq = new AtomicLong();
+    private final Map<Integer, Long> updatedAtSeq = new ConcurrentHashMap<>();
+    // 预警订阅者
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    // 查图书信息、推送预警的线程池
+    private final ThreadPoolExecutor pushExecutor;
+    private volatile boolean ready = false;
+
+    @Autowired
+    public LowStockMonitor(BookOrderMapper bookOrderMapper, BookCache bookCache,
+                           StockReservationEngine stockReservation,
+                           @Value("${bookmall.stock.alert-threshold:5}") int alertThreshold) {
+        this.bookOrderMapper = bookOrderMapper;
+        this.bookCache = bookCache;
+        this.stockReservation = stockReservation;
+        this.alertThreshold = alertThreshold;
+        this.pushExecutor = new ThreadPoolExecutor(PUSH_THREADS, PUSH_THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "stock-alert-push");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.pushExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // 关闭时断开所有订阅，停止推送
+    @PreDestroy
+    public void shutdown() {
+        pushExecutor.shutdownNow();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+    }
+
+    // 启动完成后从Book表加载全部库存
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        reconcile();
+    }
+
+    // 定时对账：以数据库为准逐本修正（只有不一致的才会更新索引/触发预警）
+    // 读库之后又被下单/管理员更新过的图书跳过，它们的新值比快照新
+    @Scheduled(initialDelayString = "${bookmall.stock.reconcile-ms:300000}",
+            fixedDelayString = "${bookmall.stock.reconcile-ms:300000}")
+    public void reconcile() {
+        try {
+            long snapshotSeq = updateSeq.get();
+            Map<Integer, Integer> stocks = new HashMap<>();
+            for (BookRow book : bookOrderMapper.getAllBookRows()) {
+                if (book.getStockNum() != null) {
+                    stocks.put(book.getBid(), stockReservation.effectiveStock(book.getBid(), book.getStockNum()));
+                }
+            }
+            for (Map.Entry<Integer, Integer> e : stocks.entrySet()) {
+                update(e.getKey(), e.getValue(), snapshotSeq);
+            }
+            // 数据库中已不存在的图书
+            for (Integer bookId : new ArrayList<>(stockByBid.keySet())) {
+                if (!stocks.containsKey(bookId)) {
+                    remove(bookId, snapshotSeq);
+                }
+            }
+            ready = true;
+        } catch (Exception e) {
+            logger.error("库存预警索引对账失败，保留当前内存数据", e);
+        }
+    }
+
+    // 订单提交后按扣减后的库存更新
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onOrderCreated(OrderCreatedEvent event) {
+        for (Map.Entry<Integer, Integer> e : event.getStockAfter().entrySet()) {
+            update(e.getKey(), e.getValue());
+        }
+    }
+
+    // 管理员修改库存后调用（已知新库存）
+    public void update(Integer bookId, Integer stockNum) {
+        update(bookId, stockNum, Long.MAX_VALUE);
+    }
+
+    // 管理员修改图书后调用（未知新库存：从图书缓存读取，调用方需先失效缓存）
+    public void refresh(Integer bookId) {
+        if (bookId == null) {
+            return;
+        }
+        BookRow book = bookCache.get(bookId);
+        if (book == null) {
+            remove(bookId, Long.MAX_VALUE);
+        } else if (book.getStockNum() != null) {
+            update(bookId, stockReservation.effectiveStock(bookId, book.getStockNum()));
+        }
+    }
+
+    // 库存在[1, maxStock]内的图书id（按库存升序、bid升序），与原SQL一样不含无货(0)和下架(-1)；未初始化完成返回null
+    public List<Integer> lowStockBookIds(int maxStock) {
+        if (!ready) {
+            return null;
+        }
+        List<Integer> ids = new ArrayList<>();
+        if (maxStock < 1) {
+            return ids;
+        }
+        NavigableSet<Long> range = byStock.subSet(key(1, 0), true, key(maxStock, Integer.MAX_VALUE), true);
+        for (Long key : range) {
+            ids.add((int) (key & 0xFFFFFFFFL));
+        }
+        return ids;
+    }
+
+    // 当前索引中的库存（未记录返回null）
+    public Integer stockOf(Integer bookId) {
+        return stockByBid.get(bookId);
+    }
+
+    // 订阅库存预警：先推送当前预警列表，之后每有图书跌破阈值推送一条
+    public SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(SUBSCRIBE_TIMEOUT_MILLIS);
+        Subscriber subscriber = new Subscriber(emitter);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        List<Map<String, Object>> snapshot = new ArrayList<>();
+        List<Integer> ids = lowStockBookIds(alertThreshold);
+        if (ids != null) {
+            Map<Integer, BookRow> books = bookCache.getAll(ids);
+            for (Integer bookId : ids) {
+                BookRow book = books.get(bookId);
+                Integer stock = stockByBid.get(bookId);
+                if (book != null && stock != null) {
+                    snapshot.add(toAlert(book, stock));
+                }
+            }
+        }
+        try {
+            emitter.send(SseEmitter.event().name("snapshot").data(snapshot));
+            subscribers.add(subscriber);
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        }
+        return emitter;
+    }
+
+    public int getAlertThreshold() {
+        return alertThreshold;
+    }
+
+    // ---------------- 内部方法 ----------------
+
+    // 更新一本书的库存；这本书在序号unchangedSince之后更新过则不动（对账用，其他调用传Long.MAX_VALUE）
+    private void update(Integer bookId, Integer stockNum, long unchangedSince) {
+        if (bookId == null || stockNum == null) {
+            return;
+        }
+        boolean crossed = false;
+        synchronized (this) {
+            if (updatedAtSeq.getOrDefault(bookId, 0L) > unchangedSince) {
+                return;
+            }
+            updatedAtSeq.put(bookId, updateSeq.incrementAndGet());
+            Integer old = stockByBid.put(bookId, stockNum);
+            if (old != null) {
+                if (old.equals(stockNum)) {
+                    return;
+                }
+                byStock.remove(key(old, bookId));
+            }
+            byStock.add(key(stockNum, bookId));
+            boolean low = isLow(stockNum);
+            if (low && (old == null || !isLow(old))) {
+                crossedAt.put(bookId, LocalDateTime.now());
+                // 启动加载时不推送
+                crossed = ready;
+            } else if (!low) {
+                crossedAt.remove(bookId);
+            }
+        }
+        // 查图书信息、推送都交给推送线程，不阻塞调用方（下单事件线程、对账、管理员请求）
+        if (crossed && !subscribers.isEmpty()) {
+            pushExecutor.execute(() -> {
+                BookRow book = bookCache.get(bookId);
+                if (book != null) {
+                    push("lowStock", toAlert(book, stockNum));
+                }
+            });
+        }
+    }
+
+    // 删除一本书；unchangedSince含义同update
+    private synchronized void remove(Integer bookId, long unchangedSince) {
+        if (updatedAtSeq.getOrDefault(bookId, 0L) > unchangedSince) {
+            return;
+        }
+        updatedAtSeq.put(bookId, updateSeq.incrementAndGet());
+        Integer old = stockByBid.remove(bookId);
+        if (old != null) {
+            byStock.remove(key(old, bookId));
+        }
+        crossedAt.remove(bookId);
+    }
+
+    // 发给每个订阅者（只入队，由各订阅者自己的发送任务写出）；卡住的订阅者先断开
+    private void push(String eventName, Object data) {
+        long now = System.currentTimeMillis();
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.isStalled(now)) {
+                logger.warn("库存预警订阅者发送超时，断开连接");
+                subscriber.close();
+                continue;
+            }
+            subscriber.offer(SseEmitter.event().name(eventName).data(data));
+        }
+    }
+
+    private Map<String, Object> toAlert(BookRow book, int stockNum) {
+        Map<String, Object> alert = new LinkedHashMap<>();
+        alert.put("bookId", book.getBid());
+        alert.put("bookName", book.getBookName());
+        alert.put("stockNum", stockNum);
+        alert.put("threshold", alertThreshold);
+        alert.put("crossedAt", crossedAt.get(book.getBid()));
+        return alert;
+    }
+
+    private boolean isLow(int stockNum) {
+        return stockNum >= 1 && stockNum <= alertThreshold;
+    }
+
+    private static long key(int stockNum, int bookId) {
+        return ((long) stockNum << 32) + bookId;
+    }
+
+    // 一个订阅者：待发送的推送排队，同一时间最多一个发送任务在推送线程上按顺序写出
+    private final class Subscriber implements Runnable {
+        private final SseEmitter emitter;
+        private final Queue<SseEmitter.SseEventBuilder> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // 正在发送的那一条的开始时间，空闲时为0
+        private volatile long sendingSince = 0;
+
+        private Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        void offer(SseEmitter.SseEventBuilder event) {
+            if (pendingCount.incrementAndGet() > MAX_PENDING) {
+                logger.warn("库存预警订阅者积压超过{}条，断开连接", MAX_PENDING);
+                close();
+                return;
+            }
+            pending.add(event);
+            schedule();
+        }
+
+        boolean isStalled(long now) {
+            long since = sendingSince;
+            return since != 0 && now - since > SEND_TIMEOUT_MILLIS;
+        }
+
+        void close() {
+            subscribers.remove(this);
+            pending.clear();
+            emitter.complete();
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (SseEmitter.SseEventBuilder event = pending.poll(); event != null; event = pending.poll()) {
+                    pendingCount.decrementAndGet();
+                    sendingSince = System.currentTimeMillis();
+                    try {
+                        emitter.send(event);
+                    } catch (IOException | IllegalStateException e) {
+                        // 连接已断开
+                        close();
+                        return;
+                    } finally {
+                        sendingSince = 0;
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            // 退出前又有新推送入队：重新调度
+            if (!pending.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                pushExecutor.execute(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.example.bookmall.cache;
+
+import org.example.bookmall.Mapper.BookOrderMapper;
+import org.example.bookmall.event.OrderCreatedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 图书销量写回计数器（write-behind）
+ * - 下单事务提交后只在内存里记下每单每本书的销量（无锁队列，多线程下单互不争用）
+ * - 定时把记下的销量汇总成每本书的增量，用一条批量UPDATE加到Book.sale_num上
+ * 下单事务本身不再更新sale_num，热门图书的行锁只剩扣库存一次
+ * 进程异常退出时未刷写的销量会丢失，sale_num最多落后一个刷写周期的销量，由对账修正
+ * - sale_num是已支付（state=2）订单的销量
+ * - 启动时及定时按订单明细重算一次sale_num（历史数据可能为NULL，丢失的增量也在此修正）；
+ *   重算以数据库中的订单号水位（SaleNumWatermark）为界，刷写时丢弃水位以内订单的销量，
+ *   多节点各自刷写、对账也不会重复累加
+ */
+@Component
+public class SaleCounter {
+    private static final Logger logger = LoggerFactory.getLogger(SaleCounter.class);
+
+    private final BookOrderMapper bookOrderMapper;
+    private final BookCache bookCache;
+
+    // 尚未写入数据库的销量：{order_id, bid, num}
+    private final ConcurrentLinkedQueue<int[]> pending = new ConcurrentLinkedQueue<>();
+
+    @Autowired
+    public SaleCounter(BookOrderMapper bookOrderMapper, BookCache bookCache) {
+        this.bookOrderMapper = bookOrderMapper;
+        this.bookCache = bookCache;
+    }
+
+    // 订单提交后记下销量（回滚的订单不会触发）
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onOrderCreated(OrderCreatedEvent event) {
+        for (Map.Entry<Integer, Integer> item : event.getBookNums().entrySet()) {
+            pending.add(new int[]{event.getOrderId(), item.getKey(), item.getValue()});
+        }
+    }
+
+    // 定时刷写：取出已记下的销量，每SALE_FLUSH_MAX_ROWS项一次批量UPDATE
+    // 某一批写库失败只把这一批及之后的放回队列，已写入的批次不会重复累加
+    @Scheduled(initialDelayString = "${bookmall.sale-counter.flush-ms:5000}",
+            fixedDelayString = "${bookmall.sale-counter.flush-ms:5000}")
+    public synchronized void flush() {
+        List<int[]> sales = new ArrayList<>();
+        for (int[] sale = pending.poll(); sale != null; sale = pending.poll()) {
+            sales.add(sale);
+        }
+        Set<Integer> updated = new HashSet<>();
+        for (int from = 0; from < sales.size(); from += BookOrderMapper.SALE_FLUSH_MAX_ROWS) {
+            List<int[]> batch = sales.subList(from, Math.min(from + BookOrderMapper.SALE_FLUSH_MAX_ROWS, sales.size()));
+            try {
+                updated.addAll(bookOrderMapper.addBookSaleNums(batch));
+            } catch (Exception e) {
+                // 写库失败：剩余销量放回队列，下一轮重试
+                List<int[]> rest = sales.subList(from, sales.size());
+                pending.addAll(rest);
+                logger.error("销量刷写失败，{}项销量留待下次重试", rest.size(), e);
+                break;
+            }
+        }
+        // 缓存中的BookRow带sale_num，刷写后失效
+        for (Integer bookId : updated) {
+            bookCache.invalidate(bookId);
+        }
+    }
+
+    // 补齐/对账：以订单明细为准重算水位以内订单的sale_num（并发刷写由数据库中的水位行锁互斥）
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${bookmall.sale-counter.resync-ms:3600000}",
+            fixedDelayString = "${bookmall.sale-counter.resync-ms:3600000}")
+    public void resync() {
+        try {
+            List<Integer> corrected = bookOrderMapper.resyncBookSaleNums();
+            for (Integer bookId : corrected) {
+                bookCache.invalidate(bookId);
+            }
+            if (!corrected.isEmpty()) {
+                logger.info("销量对账完成：修正{}本图书的sale_num", corrected.size());
+            }
+        } catch (Exception e) {
+            logger.error("销量对账失败，下次重试", e);
+        }
+    }
+
+    // 应用关闭前把剩余销量写回
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
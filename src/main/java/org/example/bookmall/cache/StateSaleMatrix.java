@@ -0,0 +1,197 @@
+package org.example.bookmall.cache;
+
+import org.example.bookmall.Mapper.BookOrderMapper;
+import org.example.bookmall.dto.BookRow;
+import org.example.bookmall.event.OrderCreatedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 按订单状态统计的图书销量矩阵（state × bid → 销量），替代每次请求都对OrderItem × [Order]做GROUP BY
+ * - 启动时从数据库汇总一次
+ * - 订单创建提交后增量累加（目前订单创建即为已支付(2)，没有修改订单状态的接口）
+ * - 汇总以订单号水位为界：先读当前最大订单号，只汇总不超过它的订单。订单事件在提交后由别的线程发布，
+ *   可能晚于汇总才到达，所以订单号在水位以内的事件一律忽略（已包含在汇总结果里）；
+ *   重新汇总期间到达的事件先记下来，替换后只补上水位以后的订单
+ *   （读水位时尚未提交的订单这一轮会漏算，下次重新汇总修正）
+ * - 每个状态的排序结果缓存起来，只有该状态的数据变化后才重新排序，管理后台轮询时不查库也不排序
+ * 与数据库的一致性可通过 /admin/sale/stat/state/check 校验，并可用reload修复
+ */
+@Component
+public class StateSaleMatrix {
+    private static final Logger logger = LoggerFactory.getLogger(StateSaleMatrix.class);
+
+    private final BookOrderMapper bookOrderMapper;
+    private final BookCache bookCache;
+
+    // state → (bid → 销量)，读写都在synchronized内
+    private final Map<Integer, Map<Integer, Long>> totals = new HashMap<>();
+    // state → 排好序的条目（销量降序、bid升序，只含销量>0），数据变化时移除，下次读取重新排序
+    private final Map<Integer, List<Entry>> sorted = new HashMap<>();
+    // 已汇总到的订单号水位：订单号不超过它的订单已包含在totals里
+    private int loadedUpTo = 0;
+    // 重新汇总期间到达的订单（替换后补上水位以后的）；不在汇总时为null
+    private List<OrderCreatedEvent> addedDuringReload;
+    // 同一时间只允许一次重新汇总
+    private final Object reloadLock = new Object();
+    private volatile boolean ready = false;
+
+    @Autowired
+    public StateSaleMatrix(BookOrderMapper bookOrderMapper, BookCache bookCache) {
+        this.bookOrderMapper = bookOrderMapper;
+        this.bookCache = bookCache;
+    }
+
+    // 启动完成后初始化
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        try {
+            reload();
+        } catch (Exception e) {
+            logger.error("订单状态销量矩阵初始化失败，按状态统计将使用SQL查询", e);
+        }
+    }
+
+    // 从数据库重新汇总，整体替换内存数据
+    public void reload() {
+        synchronized (reloadLock) {
+            synchronized (this) {
+                addedDuringReload = new ArrayList<>();
+            }
+            try {
+                int upTo = bookOrderMapper.getMaxOrderId();
+                Map<Integer, Map<Integer, Long>> loaded = bookOrderMapper.getSaleTotalsByState(upTo);
+                synchronized (this) {
+                    totals.clear();
+                    totals.putAll(loaded);
+                    loadedUpTo = upTo;
+                    for (OrderCreatedEvent event : addedDuringReload) {
+                        if (event.getOrderId() > upTo) {
+                            apply(event.getState(), event.getBookNums());
+                        }
+                    }
+                    sorted.clear();
+                    ready = true;
+                }
+            } finally {
+                synchronized (this) {
+                    addedDuringReload = null;
+                }
+            }
+        }
+    }
+
+    // 订单提交后累加到对应状态；水位以内的订单已在汇总结果里，忽略
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onOrderCreated(OrderCreatedEvent event) {
+        synchronized (this) {
+            if (event.getOrderId() <= loadedUpTo) {
+                return;
+            }
+            if (addedDuringReload != null) {
+                addedDuringReload.add(event);
+            }
+            apply(event.getState(), event.getBookNums());
+        }
+    }
+
+    // 某状态的图书销量排行（字段与AdminMapper.statSaleByOrderState一致）；未初始化完成返回null，调用方回退到SQL
+    public List<Map<String, Object>> statByState(int state) {
+        List<Entry> entries;
+        synchronized (this) {
+            if (!ready) {
+                return null;
+            }
+            entries = sorted.computeIfAbsent(state, this::sortState);
+        }
+        Map<Integer, BookRow> books = bookCache.getAll(entries.stream()
+                .map(Entry::getBookId)
+                .collect(Collectors.toList()));
+        List<Map<String, Object>> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            BookRow book = books.get(entry.getBookId());
+            if (book == null) {
+                continue; // 图书已被删除（SQL中INNER JOIN Book同样不返回）
+            }
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("bookId", book.getBid());
+            item.put("bookName", book.getBookName());
+            item.put("cover_url", book.getCoverUrl());
+            item.put("totalSale", entry.getTotalSale());
+            result.add(item);
+        }
+        return result;
+    }
+
+    // 某状态下每本书的销量副本（只含销量>0），用于与数据库对账；未初始化完成返回null
+    public synchronized Map<Integer, Long> totalsByState(int state) {
+        if (!ready) {
+            return null;
+        }
+        Map<Integer, Long> copy = new HashMap<>();
+        for (Map.Entry<Integer, Long> e : totals.getOrDefault(state, Collections.emptyMap()).entrySet()) {
+            if (e.getValue() > 0) {
+                copy.put(e.getKey(), e.getValue());
+            }
+        }
+        return copy;
+    }
+
+    // ---------------- 内部方法（调用方已持有锁） ----------------
+
+    private void apply(Integer state, Map<Integer, Integer> bookNums) {
+        if (state == null) {
+            return;
+        }
+        Map<Integer, Long> byBook = totals.computeIfAbsent(state, k -> new HashMap<>());
+        for (Map.Entry<Integer, Integer> item : bookNums.entrySet()) {
+            byBook.merge(item.getKey(), (long) item.getValue(), Long::sum);
+        }
+        sorted.remove(state);
+    }
+
+    private List<Entry> sortState(Integer state) {
+        List<Entry> entries = new ArrayList<>();
+        for (Map.Entry<Integer, Long> e : totals.getOrDefault(state, Collections.emptyMap()).entrySet()) {
+            if (e.getValue() > 0) {
+                entries.add(new Entry(e.getKey(), e.getValue()));
+            }
+        }
+        entries.sort((a, b) -> a.getTotalSale() != b.getTotalSale()
+                ? Long.compare(b.getTotalSale(), a.getTotalSale())
+                : Integer.compare(a.getBookId(), b.getBookId()));
+        return Collections.unmodifiableList(entries);
+    }
+
+    // 排行条目
+    private static final class Entry {
+        private final Integer bookId;
+        private final long totalSale;
+
+        private Entry(Integer bookId, long totalSale) {
+            this.bookId = bookId;
+            this.totalSale = totalSale;
+        }
+
+        Integer getBookId() {
+            return bookId;
+        }
+
+        long getTotalSale() {
+            return totalSale;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package org.example.bookmall.cache;
+
+import org.example.bookmall.Mapper.BookOrderMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 热门图书库存预留（促销时爆款图书不再每单都去抢Book表同一行的行锁）
+ * - 热销榜上的图书按“租约”一次从Book.stock_num划走一批库存放到内存，之后的下单直接在内存里扣减，不访问数据库
+ * - 内存库存拆成多个分片（按CPU核数），每次预留从随机的分片开始CAS扣减，减少争用；
+ *   分片不够时加锁归拢各分片余量，再不够才向数据库续租
+ *   单本下单都在下单队列的一个线程上预留，彼此没有争用；分片只在批量下单（各请求线程）同时预留时起作用
+ * - 租约是在独立事务里先从数据库扣掉的，内存里能扣到的库存一定已经从数据库扣过，所以不会超卖
+ *   （多节点各自租约也一样）；下单事务回滚时把预留的数量还回预留时的租约（租约已回收则还给数据库）
+ * - 图书掉出热销榜、应用关闭时把未用完的库存写回Book.stock_num；管理员修改库存/下架时直接作废租约，
+ *   作废前的预留之后再归还也不加回去（以管理员设置的值为准）
+ * 进程异常退出时未用完的租约库存会丢失（少卖不超卖），管理员修改库存即可修正
+ */
+@Component
+public class StockReservationEngine {
+    private static final Logger logger = LoggerFactory.getLogger(StockReservationEngine.class);
+
+    private final BookOrderMapper bookOrderMapper;
+    private final HotBookLeaderboard hotBookLeaderboard;
+    // 租约在独立事务里提交：不随下单事务回滚，也不让下单事务一直持有Book行锁
+    private final TransactionTemplate leaseTransaction;
+    // 每次续租划走的库存数量
+    private final int leaseSize;
+    // 每本书的分片数（2的幂）
+    private final int stripeCount;
+
+    // bid → 内存库存；只有热门图书才有
+    private final Map<Integer, StripedStock> leases = new ConcurrentHashMap<>();
+    // 当前由内存预留管理的图书
+    private volatile Set<Integer> hotBooks = Collections.emptySet();
+
+    @Autowired
+    public StockReservationEngine(BookOrderMapper bookOrderMapper, HotBookLeaderboard hotBookLeaderboard,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${bookmall.stock.lease-size:20}") int leaseSize) {
+        this(bookOrderMapper, hotBookLeaderboard, transactionManager, leaseSize,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    StockReservationEngine(BookOrderMapper bookOrderMapper, HotBookLeaderboard hotBookLeaderboard,
+                           PlatformTransactionManager transactionManager, int leaseSize, int stripes) {
+        this.bookOrderMapper = bookOrderMapper;
+        this.hotBookLeaderboard = hotBookLeaderboard;
+        this.leaseTransaction = new TransactionTemplate(transactionManager);
+        this.leaseTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.leaseSize = Math.max(1, leaseSize);
+        int count = 1;
+        while (count < stripes) {
+            count <<= 1;
+        }
+        this.stripeCount = count;
+    }
+
+    // 预留库存：返回预留凭证，isReserved()为false表示库存不足
+    // 返回null表示这本书不由内存预留管理（不是热门图书/数据库库存已见底），调用方走原来的数据库扣减
+    // 在事务中调用时，事务回滚会自动把预留的数量还回来；不在事务中时由调用方失败后release
+    public Reservation reserve(Integer bookId, int num) {
+        if (bookId == null || num <= 0) {
+            return Reservation.NOT_ENOUGH;
+        }
+        while (hotBooks.contains(bookId)) {
+            StripedStock stock = leases.computeIfAbsent(bookId, id -> new StripedStock(stripeCount));
+            // 快速路径：CAS扣减分片（失败再试其他分片）
+            if (stock.tryAcquire(num)) {
+                return reserved(bookId, num, stock);
+            }
+            synchronized (stock) {
+                if (stock.closed) {
+                    // 租约刚被回收，重新判断是否还是热门图书
+                    continue;
+                }
+                if (stock.tryAcquire(num)) {
+                    return reserved(bookId, num, stock);
+                }
+                // 归拢各分片余量，不够再向数据库续租
+                long pooled = stock.drain();
+                while (pooled < num) {
+                    long shortfall = num - pooled;
+                    int[] lease = leaseTransaction.execute(
+                            status -> bookOrderMapper.leaseBookStock(bookId, (int) (leaseSize + shortfall)));
+                    if (lease == null) {
+                        break;
+                    }
+                    pooled += lease[0];
+                    stock.dbStock = lease[1];
+                }
+                if (pooled >= num) {
+                    stock.spread(pooled - num);
+                    return reserved(bookId, num, stock);
+                }
+                // 数据库库存已见底：余量还给数据库，这本书之后由原SQL扣减，库存不足由SQL判断
+                close(bookId, stock, pooled);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // 归还预留（下单失败/事务回滚时）：还回预留时的租约
+    public void release(Reservation reservation) {
+        if (reservation == null || !reservation.isReserved()) {
+            return;
+        }
+        StripedStock stock = reservation.stock;
+        synchronized (stock) {
+            if (stock.evicted) {
+                // 租约已被管理员作废：数据库库存以管理员设置的值为准，不再加回
+                return;
+            }
+            if (!stock.closed) {
+                stock.spread(reservation.num);
+                return;
+            }
+        }
+        // 租约已回收（余量已写回）：直接还给数据库
+        returnToDatabase(reservation.bookId, reservation.num);
+    }
+
+    // 这本书当前可售库存（数据库剩余 + 内存余量），不由内存预留管理时返回null
+    public Integer stockOf(Integer bookId) {
+        StripedStock stock = leases.get(bookId);
+        if (stock == null) {
+            return null;
+        }
+        return (int) (stock.dbStock + stock.available());
+    }
+
+    // 下单前校验用：数据库里的库存加上内存余量（rowStock为BookCache中的库存）
+    public int effectiveStock(Integer bookId, int rowStock) {
+        StripedStock stock = leases.get(bookId);
+        return stock == null ? rowStock : (int) (rowStock + stock.available());
+    }
+
+    // 作废租约且不归还（管理员直接设置了库存/下架图书，以管理员设置的值为准）
+    public void evict(Integer bookId) {
+        StripedStock stock = leases.remove(bookId);
+        if (stock != null) {
+            synchronized (stock) {
+                stock.closed = true;
+                stock.evicted = true;
+                stock.drain();
+            }
+        }
+    }
+
+    // 定时按热销榜更新热门图书，掉出榜单的图书归还未用完的库存
+    @Scheduled(initialDelayString = "${bookmall.stock.lease-sync-ms:10000}",
+            fixedDelayString = "${bookmall.stock.lease-sync-ms:10000}")
+    public void sync() {
+        List<HotBookLeaderboard.Entry> top = hotBookLeaderboard.top();
+        if (top == null) {
+            return;
+        }
+        Set<Integer> hot = new HashSet<>();
+        for (HotBookLeaderboard.Entry entry : top) {
+            hot.add(entry.getBookId());
+        }
+        retain(hot);
+    }
+
+    // 应用关闭前归还所有租约
+    @PreDestroy
+    public void shutdown() {
+        retain(Collections.emptySet());
+    }
+
+    // 只保留hot中的图书由内存预留管理，其余租约归还数据库
+    void retain(Set<Integer> hot) {
+        hotBooks = Collections.unmodifiableSet(new HashSet<>(hot));
+        for (Integer bookId : new ArrayList<>(leases.keySet())) {
+            if (!hot.contains(bookId)) {
+                StripedStock stock = leases.get(bookId);
+                if (stock != null) {
+                    synchronized (stock) {
+                        if (!stock.closed) {
+                            close(bookId, stock, stock.drain());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // 回收租约并把余量写回数据库（调用方持有stock的锁）
+    private void close(Integer bookId, StripedStock stock, long leftover) {
+        stock.closed = true;
+        leases.remove(bookId, stock);
+        if (leftover > 0) {
+            returnToDatabase(bookId, (int) leftover);
+        }
+    }
+
+    private void returnToDatabase(Integer bookId, int num) {
+        try {
+            bookOrderMapper.returnBookStock(bookId, num);
+        } catch (Exception e) {
+            logger.error("图书{}的{}本租约库存归还失败，请核对库存", bookId, num, e);
+        }
+    }
+
+    // 预留成功；在事务中时登记回滚后归还
+    private Reservation reserved(Integer bookId, int num, StripedStock stock) {
+        Reservation reservation = new Reservation(bookId, num, stock);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        release(reservation);
+                    }
+                }
+            });
+        }
+        return reservation;
+    }
+
+    // 一次预留的凭证：记住预留自哪个租约，归还时还回同一个租约
+    public static final class Reservation {
+        // 库存不足
+        private static final Reservation NOT_ENOUGH = new Reservation(null, 0, null);
+
+        private final Integer bookId;
+        private final int num;
+        private final StripedStock stock;
+
+        private Reservation(Integer bookId, int num, StripedStock stock) {
+            this.bookId = bookId;
+            this.num = num;
+            this.stock = stock;
+        }
+
+        // 是否已预留（false表示库存不足）
+        public boolean isReserved() {
+            return stock != null;
+        }
+    }
+
+    // 分片库存：每个分片独占一条缓存行（间隔8个long），避免伪共享
+    private static final class StripedStock {
+        private static final int PAD = 8;
+
+        private final AtomicLongArray cells;
+        private final int mask;
+        // 最近一次续租后数据库剩余的库存（仅用于展示/预警）
+        private volatile int dbStock;
+        // 租约已回收，不能再往里放库存
+        private boolean closed;
+        // 租约被管理员作废（未用完的库存不归还，之前的预留归还时也不加回数据库）
+        private boolean evicted;
+
+        private StripedStock(int stripes) {
+            this.cells = new AtomicLongArray(stripes * PAD);
+            this.mask = stripes - 1;
+        }
+
+        // 从随机的分片开始依次尝试CAS扣减（按线程选分片时，下单队列的单线程会一直落在同一个分片上）
+        private boolean tryAcquire(int num) {
+            int start = ThreadLocalRandom.current().nextInt();
+            for (int i = 0; i <= mask; i++) {
+                int index = ((start + i) & mask) * PAD;
+                long current = cells.get(index);
+                while (current >= num) {
+                    if (cells.compareAndSet(index, current, current - num)) {
+                        return true;
+                    }
+                    current = cells.get(index);
+                }
+            }
+            return false;
+        }
+
+        // 取出全部分片的余量
+        private long drain() {
+            long total = 0;
+            for (int i = 0; i <= mask; i++) {
+                total += cells.getAndSet(i * PAD, 0);
+            }
+            return total;
+        }
+
+        // 把库存平均放回各分片
+        private void spread(long total) {
+            int stripes = mask + 1;
+            long each = total / stripes;
+            long rest = total % stripes;
+            for (int i = 0; i < stripes; i++) {
+                long add = each + (i < rest ? 1 : 0);
+                if (add > 0) {
+                    cells.addAndGet(i * PAD, add);
+                }
+            }
+        }
+
+        private long available() {
+            long total = 0;
+            for (int i = 0; i <= mask; i++) {
+                total += cells.get(i * PAD);
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.example.bookmall.cache;
+
+import org.example.bookmall.Mapper.UserMapper;
+import org.example.bookmall.dto.UserRow;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 用户进程内缓存（按user_id缓存，LRU淘汰，带过期时间）
+ * 只缓存不含密码的用户信息（UserMapper.getUserProfileById），供用户是否存在的校验和查询个人信息使用；
+ * 校验原密码等需要密码的地方仍然查库
+ * 不存在的user_id也缓存一个较短时间（负缓存），避免无效ID反复查库
+ * 写：修改个人信息后由调用方invalidate；注册新用户后清掉所有负缓存（新用户的ID事先不知道）
+ */
+@Component
+public class UserCache {
+    // 负缓存标记：该user_id不存在
+    private static final UserRow ABSENT = new UserRow(null, null, null, null, null);
+
+    private final UserMapper userMapper;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+
+    // accessOrder=true：按访问顺序排列，最久未访问的在队头，超出容量时淘汰
+    private final LinkedHashMap<Integer, Entry> entries;
+    // 正在加载的key → 加载令牌；加载期间被invalidate会移除令牌，加载结果就不再放入缓存（防止旧数据回填）
+    private final Map<Integer, Object> pendingLoads = new HashMap<>();
+
+    // 统计计数器
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    @Autowired
+    public UserCache(UserMapper userMapper,
+                     @Value("${bookmall.cache.user.max-size:10000}") int maxSize,
+                     @Value("${bookmall.cache.user.ttl-ms:300000}") long ttlMillis,
+                     @Value("${bookmall.cache.user.negative-ttl-ms:30000}") long negativeTtlMillis) {
+        this.userMapper = userMapper;
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.negativeTtlNanos = negativeTtlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                if (size() > UserCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // 按user_id取用户（不含密码），不存在返回null
+    public UserRow get(Integer userId) {
+        if (userId == null) {
+            return null;
+        }
+        Object token;
+        synchronized (this) {
+            Entry cached = entries.get(userId);
+            if (cached != null) {
+                if (cached.expiresAt - System.nanoTime() > 0) {
+                    if (cached.user == ABSENT) {
+                        negativeHits.increment();
+                        return null;
+                    }
+                    hits.increment();
+                    return cached.user;
+                }
+                entries.remove(userId);
+            }
+            misses.increment();
+            token = pendingLoads.computeIfAbsent(userId, k -> new Object());
+        }
+        // 查库放在锁外，避免慢查询阻塞其他用户的读取
+        UserRow loaded = userMapper.getUserProfileById(userId);
+        synchronized (this) {
+            if (pendingLoads.remove(userId, token)) {
+                long ttl = loaded == null ? negativeTtlNanos : ttlNanos;
+                entries.put(userId, new Entry(loaded == null ? ABSENT : loaded, System.nanoTime() + ttl));
+            }
+        }
+        return loaded;
+    }
+
+    // 用户是否存在
+    public boolean exists(Integer userId) {
+        return get(userId) != null;
+    }
+
+    // 立即失效某个用户
+    public synchronized void invalidate(Integer userId) {
+        if (userId == null) {
+            return;
+        }
+        entries.remove(userId);
+        pendingLoads.remove(userId);
+        invalidations.increment();
+    }
+
+    // 清掉所有负缓存（注册新用户后调用）
+    public synchronized void invalidateAbsent() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().user == ABSENT) {
+                it.remove();
+            }
+        }
+        // 正在加载的也可能查到注册前的结果
+        pendingLoads.clear();
+        invalidations.increment();
+    }
+
+    // 缓存统计：命中/负缓存命中/未命中/淘汰/失效次数
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.sum() + negativeHits.sum();
+        long missCount = misses.sum();
+        synchronized (this) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxSize", maxSize);
+        stats.put("hits", hits.sum());
+        stats.put("negativeHits", negativeHits.sum());
+        stats.put("misses", missCount);
+        stats.put("evictions", evictions.sum());
+        stats.put("invalidations", invalidations.sum());
+        stats.put("hitRate", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        return stats;
+    }
+
+    // 缓存项：用户信息（或ABSENT）和过期时刻（System.nanoTime）
+    private static final class Entry {
+        private final UserRow user;
+        private final long expiresAt;
+
+        private Entry(UserRow user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package org.example.bookmall.cache;
+
+import org.example.bookmall.Mapper.UserMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 登录名/手机号的布隆过滤器（注册、改手机号时的唯一性校验先查这里）
+ * - 过滤器说“不存在”就一定不存在，直接跳过数据库查询；说“可能存在”再查库确认
+ * - 过滤器只反映本节点看到的数据：其他节点刚注册的用户可能还不在里面。所以只有数据库上有该列的唯一约束时
+ *   才跳过查询（冲突由约束兜底，调用方把违反约束翻译成提示），没有约束时一律查库
+ *   登录名的唯一索引见db/migration/V1__user_login_name_unique.sql，
+ *   手机号的唯一索引见db/migration/V5__user_phone_unique.sql（过滤索引，空手机号不参与，调用方也只对非空手机号查过滤器）
+ * - 启动时从User表全量构建；注册、修改手机号后由调用方add
+ * - 布隆过滤器不能删除：改掉的旧手机号、超出预估容量的新增都会让误判率上升，所以定期重建
+ * - 未构建完成（启动中/构建失败）时一律返回“可能存在”，调用方照常查库
+ */
+@Component
+public class UserKeyFilter {
+    private static final Logger logger = LoggerFactory.getLogger(UserKeyFilter.class);
+    // 预留的增长空间：按现有用户数的1.5倍、至少1000个预估容量
+    private static final int MIN_CAPACITY = 1000;
+
+    private final UserMapper userMapper;
+    private final double falsePositiveRate;
+
+    // 当前使用的过滤器，重建时整体替换；未构建时为null
+    private volatile Filters filters;
+    // 重建期间的新增（查库之后、替换之前add的key要补进新过滤器）；不在重建时为null
+    private List<String[]> addedDuringRebuild;
+
+    @Autowired
+    public UserKeyFilter(UserMapper userMapper,
+                         @Value("${bookmall.user-filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.userMapper = userMapper;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    // 启动完成后构建，之后定期重建
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${bookmall.user-filter.rebuild-ms:3600000}",
+            fixedDelayString = "${bookmall.user-filter.rebuild-ms:3600000}")
+    public void rebuild() {
+        synchronized (this) {
+            addedDuringRebuild = new ArrayList<>();
+        }
+        try {
+            int capacity = Math.max(MIN_CAPACITY, (int) Math.min(Integer.MAX_VALUE / 2, userMapper.countUsers() * 3L / 2));
+            Filters rebuilt = new Filters(new BloomFilter(capacity, falsePositiveRate),
+                    new BloomFilter(capacity, falsePositiveRate),
+                    userMapper.hasUniqueIndex("login_name"), userMapper.hasUniqueIndex("phonenumber"));
+            userMapper.forEachUserKey((loginName, phonenumber) -> rebuilt.add(loginName, phonenumber));
+            synchronized (this) {
+                for (String[] keys : addedDuringRebuild) {
+                    rebuilt.add(keys[0], keys[1]);
+                }
+                filters = rebuilt;
+            }
+            logger.info("用户登录名/手机号过滤器构建完成：预估容量{}，已加入{}个登录名，唯一约束：登录名{}，手机号{}",
+                    capacity, rebuilt.loginNames.count, rebuilt.loginNameUnique, rebuilt.phoneUnique);
+        } catch (Exception e) {
+            // 构建失败不影响使用：沿用旧过滤器，或一律查库
+            logger.error("用户登录名/手机号过滤器构建失败", e);
+        } finally {
+            synchronized (this) {
+                addedDuringRebuild = null;
+            }
+        }
+    }
+
+    // 新用户注册或修改手机号后调用（参数可为null）
+    public synchronized void add(String loginName, String phonenumber) {
+        Filters current = filters;
+        if (current != null) {
+            current.add(loginName, phonenumber);
+        }
+        if (addedDuringRebuild != null) {
+            addedDuringRebuild.add(new String[]{loginName, phonenumber});
+        }
+    }
+
+    // 登录名可能已存在（false表示本节点没见过且有唯一约束兜底，可以不查库）
+    public boolean mightContainLoginName(String loginName) {
+        Filters current = filters;
+        return current == null || !current.loginNameUnique || current.loginNames.mightContain(normalize(loginName));
+    }
+
+    // 手机号可能已被使用（false表示本节点没见过且有唯一约束兜底，可以不查库）
+    public boolean mightContainPhone(String phonenumber) {
+        Filters current = filters;
+        return current == null || !current.phoneUnique || current.phones.mightContain(normalize(phonenumber));
+    }
+
+    // 数据库默认排序规则不区分大小写、忽略尾部空格，key按同样的规则归一化，避免漏判
+    private static String normalize(String key) {
+        int end = key.length();
+        while (end > 0 && key.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return key.substring(0, end).toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+    }
+
+    // 一代过滤器：登录名和手机号各一个，以及构建时数据库上是否有对应的唯一约束
+    private static final class Filters {
+        private final BloomFilter loginNames;
+        private final BloomFilter phones;
+        private final boolean loginNameUnique;
+        private final boolean phoneUnique;
+
+        private Filters(BloomFilter loginNames, BloomFilter phones, boolean loginNameUnique, boolean phoneUnique) {
+            this.loginNames = loginNames;
+            this.phones = phones;
+            this.loginNameUnique = loginNameUnique;
+            this.phoneUnique = phoneUnique;
+        }
+
+        private void add(String loginName, String phonenumber) {
+            if (loginName != null) {
+                loginNames.put(normalize(loginName));
+            }
+            if (phonenumber != null && !phonenumber.isEmpty()) {
+                phones.put(normalize(phonenumber));
+            }
+        }
+    }
+
+    // 位数组 + k个哈希（由一个64位哈希的高低两半组合出k个位置）
+    // 写入在UserKeyFilter的锁内进行，读不加锁，位数组用AtomicLongArray保证可见性
+    static final class BloomFilter {
+        private final AtomicLongArray bits;
+        private final long bitCount;
+        private final int hashCount;
+        private volatile int count;
+
+        BloomFilter(int expectedInsertions, double falsePositiveRate) {
+            // m = -n·ln(p) / (ln2)^2，k = m/n·ln2
+            long m = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            int words = (int) Math.max(1, (m + 63) / 64);
+            this.bits = new AtomicLongArray(words);
+            this.bitCount = words * 64L;
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+        }
+
+        void put(String key) {
+            long hash = hash64(key);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashCount; i++) {
+                long index = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+                int word = (int) (index >>> 6);
+                long mask = 1L << index;
+                long old;
+                do {
+                    old = bits.get(word);
+                } while ((old & mask) == 0 && !bits.compareAndSet(word, old, old | mask));
+            }
+            count++;
+        }
+
+        boolean mightContain(String key) {
+            long hash = hash64(key);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashCount; i++) {
+                long index = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+                if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // FNV-1a逐字符累积，再做一次64位混合（murmur3 fmix64），让高低位都分布均匀
+        private static long hash64(String key) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                h ^= key.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
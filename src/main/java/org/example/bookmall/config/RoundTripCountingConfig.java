@@ -0,0 +1,48 @@
+package org.example.bookmall.config;
+
+import org.example.bookmall.utils.RoundTripCounter;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.servlet.Filter;
+import javax.sql.DataSource;
+
+//数据库往返计数：数据源套一层RoundTripCountingDataSource，每个请求开始时开启计数，结束时清除
+//计数结果通过响应头X-DB-Round-Trips返回（见RoundTripHeaderAdvice）
+//仅用于压测/排查，bookmall.db.round-trip-counting.enabled=true时才生效，默认关闭
+@Configuration
+@ConditionalOnProperty(name = "bookmall.db.round-trip-counting.enabled", havingValue = "true")
+public class RoundTripCountingConfig {
+
+    // static：BeanPostProcessor要比其他Bean先创建
+    @Bean
+    public static BeanPostProcessor roundTripCountingDataSourcePostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource && !(bean instanceof RoundTripCountingDataSource)) {
+                    return new RoundTripCountingDataSource((DataSource) bean);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    public FilterRegistrationBean<Filter> roundTripCounterFilter() {
+        Filter filter = (request, response, chain) -> {
+            RoundTripCounter.start();
+            try {
+                chain.doFilter(request, response);
+            } finally {
+                RoundTripCounter.stop();
+            }
+        };
+        FilterRegistrationBean<Filter> registration = new FilterRegistrationBean<>(filter);
+        registration.addUrlPatterns("/*");
+        return registration;
+    }
+}
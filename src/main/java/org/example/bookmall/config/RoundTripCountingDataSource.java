@@ -0,0 +1,81 @@
+package org.example.bookmall.config;
+
+import org.example.bookmall.utils.RoundTripCounter;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+//统计数据库往返次数的数据源代理：包住连接池，连接/语句上真正发给数据库的调用记一次RoundTripCounter.record()
+//计数的调用：语句的execute*/executeBatch，连接的commit/rollback/setAutoCommit/setTransactionIsolation
+//大结果集分批取回（fetchSize）产生的往返不计
+public class RoundTripCountingDataSource extends DelegatingDataSource {
+    private static final Set<String> STATEMENT_ROUND_TRIPS = new HashSet<>(Arrays.asList(
+            "execute", "executeQuery", "executeUpdate", "executeLargeUpdate", "executeBatch", "executeLargeBatch"));
+    private static final Set<String> CONNECTION_ROUND_TRIPS = new HashSet<>(Arrays.asList(
+            "commit", "rollback", "setAutoCommit", "setTransactionIsolation"));
+
+    public RoundTripCountingDataSource(DataSource target) {
+        super(target);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(getTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrap(getTargetDataSource().getConnection(username, password));
+    }
+
+    private static Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(RoundTripCountingDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    if (CONNECTION_ROUND_TRIPS.contains(method.getName())) {
+                        RoundTripCounter.record();
+                    }
+                    Object result = invoke(connection, method, args);
+                    // 语句也包一层，执行时计数
+                    if (result instanceof CallableStatement) {
+                        return wrapStatement((Statement) result, CallableStatement.class);
+                    }
+                    if (result instanceof PreparedStatement) {
+                        return wrapStatement((Statement) result, PreparedStatement.class);
+                    }
+                    if (result instanceof Statement) {
+                        return wrapStatement((Statement) result, Statement.class);
+                    }
+                    return result;
+                });
+    }
+
+    private static Object wrapStatement(Statement statement, Class<? extends Statement> type) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (STATEMENT_ROUND_TRIPS.contains(method.getName())) {
+                RoundTripCounter.record();
+            }
+            return invoke(statement, method, args);
+        };
+        return Proxy.newProxyInstance(RoundTripCountingDataSource.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+}
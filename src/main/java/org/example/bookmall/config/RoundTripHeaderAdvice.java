@@ -0,0 +1,35 @@
+package org.example.bookmall.config;
+
+import org.example.bookmall.utils.RoundTripCounter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+//写响应体之前把本次请求的数据库往返次数放到响应头（直接写输出流的流式接口没有这个头）
+//与RoundTripCountingConfig一起开关
+@ControllerAdvice
+@ConditionalOnProperty(name = "bookmall.db.round-trip-counting.enabled", havingValue = "true")
+public class RoundTripHeaderAdvice implements ResponseBodyAdvice<Object> {
+    public static final String HEADER = "X-DB-Round-Trips";
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        RoundTripCounter counter = RoundTripCounter.current();
+        if (counter != null) {
+            response.getHeaders().set(HEADER, String.valueOf(counter.get()));
+        }
+        return body;
+    }
+}
@@ -1,19 +1,25 @@
 package org.example.bookmall.config;
 
+import org.example.bookmall.auth.SessionTokenService;
 import org.example.bookmall.interceptor.AdminLoginInterceptor;
 import org.example.bookmall.interceptor.UserLoginInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
-import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
 
+    // 登录令牌（bookmall.auth.mode=token时拦截器用它校验登录状态）
+    @Autowired
+    private SessionTokenService tokenService;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         // 1. 管理员拦截器
-        registry.addInterceptor(new AdminLoginInterceptor())
+        registry.addInterceptor(new AdminLoginInterceptor(tokenService))
                 .addPathPatterns("/admin/**") // 拦截/admin开头的接口
                 // 排除：登录接口 + 所有.html静态页面
                 .excludePathPatterns(
@@ -23,7 +29,7 @@ public class WebConfig implements WebMvcConfigurer {
                 );
 
         // 2. 用户拦截器 - 简化配置，具体放行逻辑在拦截器内部处理
-        registry.addInterceptor(new UserLoginInterceptor())
+        registry.addInterceptor(userLoginInterceptor())
                 .addPathPatterns("/user/**") // 拦截所有/user/开头的请求
                 // 只放行静态资源
                 .excludePathPatterns(
@@ -38,19 +44,11 @@ public class WebConfig implements WebMvcConfigurer {
                 );
     }
 
-    // 添加静态资源映射
-    @Override
-    public void addResourceHandlers(ResourceHandlerRegistry registry) {
-        // 获取项目根目录
-        String projectPath = System.getProperty("user.dir");
-
-        // 映射上传的封面图片
-        String coverUploadPath = "file:" + projectPath + "/upload/cover/";
-        registry.addResourceHandler("/upload/cover/**")
-                .addResourceLocations(coverUploadPath);
-
-        // 如果需要，可以添加其他静态资源映射
-        // registry.addResourceHandler("/static/**")
-        //         .addResourceLocations("classpath:/static/");
+    // 用户拦截器注册为Bean，管理端可以查看它的路由统计
+    @Bean
+    public UserLoginInterceptor userLoginInterceptor() {
+        return new UserLoginInterceptor(tokenService);
     }
+
+    // 上传的封面图片（/upload/cover/**）由CoverController提供：长期缓存、ETag、Range、零拷贝发送
 }
\ No newline at end of file
@@ -1,22 +1,31 @@
 package org.example.bookmall.controller;
 
+import org.example.bookmall.auth.SessionTokenService;
 import org.example.bookmall.entity.Book;
 import org.example.bookmall.entity.Order;
 import org.example.bookmall.entity.OrderItem;
 import org.example.bookmall.entity.User;
+import org.example.bookmall.interceptor.UserLoginInterceptor;
 import org.example.bookmall.service.AdminService;
+import org.example.bookmall.utils.PageCursor;
 import org.example.bookmall.utils.ResultUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 /**
@@ -26,30 +35,58 @@ import javax.servlet.http.HttpSession;
 // 注意：这里不添加@RequestMapping("/admin")，因为现有接口已经自带/admin前缀
 public class AdminController {
 
+    // 翻页接口每页默认/最多条数
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+
     // 注入Service层（Spring自动创建实例）
     @Autowired
     private AdminService adminService;
 
+    // 登录令牌（bookmall.auth.mode=token时代替Session）
+    @Autowired
+    private SessionTokenService tokenService;
+
+    // 用户端登录拦截器（查看路由放行/拒绝统计）
+    @Autowired
+    private UserLoginInterceptor userLoginInterceptor;
+
+    // 默认库存预警阈值
+    @Value("${bookmall.stock.alert-threshold:5}")
+    private int alertThreshold;
+
     // ========== 原有管理员接口（保持不变） ==========
     // 1. 管理员登录接口（修改后：存入Session）
     // 访问示例：http://localhost:8080/admin/login?loginName=test_admin&password=test_pwd123
     @GetMapping("/admin/login")
-    public Map<String, Object> adminLogin(String loginName, String password, HttpSession session) {
+    public Map<String, Object> adminLogin(String loginName, String password,
+                                          HttpServletRequest request, HttpServletResponse response) {
         Map<String, Object> result = new HashMap<>();
         // 调用已有Service方法校验管理员
         User admin = adminService.adminLogin(loginName, password);
         if (admin != null) {
-            // 登录成功：存入Session（Key=LOGIN_ADMIN，后续拦截器校验用）
-            session
-                    .setAttribute("LOGIN_ADMIN", admin);
+            if (tokenService.isTokenMode()) {
+                // 令牌模式：签发令牌写入Cookie
+                result.put("token", tokenService.login(response, SessionTokenService.ROLE_ADMIN, admin.getUserId()));
+            } else {
+                // 登录成功：存入Session（Key=LOGIN_ADMIN，后续拦截器校验用）
+                request.getSession()
+                        .setAttribute("LOGIN_ADMIN", admin);
+            }
             result
                     .put("success", true);
             result
                     .put("msg", "✅ 管理员登录成功");
         } else {
-            // 登录失败：清空Session
-            session
-                    .removeAttribute("LOGIN_ADMIN");
+            // 登录失败：清空登录状态（没有Session就不创建）
+            if (tokenService.isTokenMode()) {
+                tokenService.logout(response, SessionTokenService.ROLE_ADMIN);
+            } else {
+                HttpSession session = request.getSession(false);
+                if (session != null) {
+                    session.removeAttribute("LOGIN_ADMIN");
+                }
+            }
             result
                     .put("success", false);
             result
@@ -59,11 +96,18 @@ public class AdminController {
     }
     //  新增：登录状态检查接口（前端bookManage.html依赖）
     @GetMapping("/admin/checkLogin")
-    public Map<String, Object> checkLogin(HttpSession session) {
+    public Map<String, Object> checkLogin(HttpServletRequest request) {
         Map<String, Object> result = new HashMap<>();
-        // 仅校验Session中是否有管理员信息，返回布尔值
+        // 仅校验是否已登录管理员（令牌或Session），返回布尔值；不创建Session
+        boolean loggedIn;
+        if (tokenService.isTokenMode()) {
+            loggedIn = tokenService.authenticate(request, SessionTokenService.ROLE_ADMIN) != null;
+        } else {
+            HttpSession session = request.getSession(false);
+            loggedIn = session != null && session.getAttribute("LOGIN_ADMIN") != null;
+        }
         result
-                .put("success", session.getAttribute("LOGIN_ADMIN") != null);
+                .put("success", loggedIn);
         return result;
     }
 
@@ -112,13 +156,14 @@ public class AdminController {
 
     // 3. 库存预警接口
     // 访问示例：http://localhost:8080/admin/stock/alert
+    // 访问示例（自定义阈值）：http://localhost:8080/admin/stock/alert?threshold=10
     @GetMapping("/admin/stock/alert")
-    public String stockAlert() {
-        List<Book> lowStockBooks = adminService.getLowStockBooks();
+    public String stockAlert(@RequestParam(required = false) Integer threshold) {
+        List<Book> lowStockBooks = adminService.getLowStockBooks(threshold);
         if (lowStockBooks.isEmpty()) {
             return "✅ 所有图书库存充足";
         } else {
-            StringBuilder sb = new StringBuilder("⚠️ 库存预警（≤5本）：\n");
+            StringBuilder sb = new StringBuilder("⚠️ 库存预警（≤" + (threshold != null ? threshold : alertThreshold) + "本）：\n");
             for (Book book : lowStockBooks) {
                 sb.append("书号：").append(book.getBookId())
                         .append("，书名：").append(book.getBookName())
@@ -128,18 +173,56 @@ public class AdminController {
         }
     }
 
+    // 3.1 库存预警订阅接口（SSE：连接后先收到当前预警列表snapshot，之后图书跌破阈值时收到lowStock事件）
+    // 访问示例：new EventSource("http://localhost:8080/admin/stock/alert/subscribe")
+    @GetMapping("/admin/stock/alert/subscribe")
+    public SseEmitter subscribeStockAlert() {
+        return adminService.subscribeLowStock();
+    }
+
     // 4. 查看所有普通用户接口
     // 访问示例：http://localhost:8080/admin/user/list
+    // 全量接口改为流式写出（返回格式仍是JSON数组），数据多时请用翻页接口
     @GetMapping("/admin/user/list")
-    public List<User> listAllCommonUsers() {
-        return adminService.listAllCommonUsers();
+    public void listAllCommonUsers(HttpServletResponse response) throws IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        adminService.writeAllCommonUsers(response.getOutputStream());
+    }
+
+    // 4.1 普通用户翻页接口（游标翻页，首页不传cursor，之后传上一页返回的nextCursor）
+    // 访问示例：http://localhost:8080/admin/user/page?pageSize=50
+    @GetMapping("/admin/user/page")
+    public Map<String, Object> pageCommonUsers(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer pageSize) {
+        Integer lastId = decodeLastId(cursor);
+        if (lastId == null) {
+            return invalidCursor();
+        }
+        int size = normalizePageSize(pageSize);
+        return pageResult(adminService.listCommonUsersAfter(lastId, size), size, User::getUserId);
     }
 
     // 5. 查看所有订单接口
     // 访问示例：http://localhost:8080/admin/order/list
     @GetMapping("/admin/order/list")
-    public List<Order> listAllOrders() {
-        return adminService.listAllOrders();
+    public void listAllOrders(HttpServletResponse response) throws IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        adminService.writeAllOrders(response.getOutputStream());
+    }
+
+    // 5.1 订单翻页接口
+    // 访问示例：http://localhost:8080/admin/order/page?pageSize=50
+    @GetMapping("/admin/order/page")
+    public Map<String, Object> pageOrders(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer pageSize) {
+        Integer lastId = decodeLastId(cursor);
+        if (lastId == null) {
+            return invalidCursor();
+        }
+        int size = normalizePageSize(pageSize);
+        return pageResult(adminService.listOrdersAfter(lastId, size), size, Order::getOrderId);
     }
 
     // 6. 修改图书库存接口
@@ -157,18 +240,37 @@ public class AdminController {
 
     // ========== 核心修改：合并订单详情接口（删除原有独立的listAllOrderItems方法） ==========
     /**
-     * 合并版：按订单ID查询/全量查询订单详情
-     * 访问示例1（全量）：http://localhost:8080/admin/order/item/list
-     * 访问示例2（按ID）：http://localhost:8080/admin/order/item/list?orderId=5
+     * 全量查询订单详情（同一路径，不带orderId时进入这里）
+     * 访问示例：http://localhost:8080/admin/order/item/list
      */
-    @GetMapping("/admin/order/item/list")
-    public List<OrderItem> listOrderItems(
-            @RequestParam(required = false) Integer orderId) {
-        if (orderId != null) {
-            return adminService.listOrderItemsByOrderId(orderId);
-        } else {
-            return adminService.listAllOrderItems();
+    @GetMapping(value = "/admin/order/item/list", params = "!orderId")
+    public void listAllOrderItems(HttpServletResponse response) throws IOException {
+        // 流式写出，不把整张OrderItem表放进内存
+        response.setContentType("application/json;charset=UTF-8");
+        adminService.writeAllOrderItems(response.getOutputStream());
+    }
+
+    /**
+     * 按订单ID查询订单详情
+     * 访问示例：http://localhost:8080/admin/order/item/list?orderId=5
+     */
+    @GetMapping(value = "/admin/order/item/list", params = "orderId")
+    public List<OrderItem> listOrderItems(@RequestParam Integer orderId) {
+        return adminService.listOrderItemsByOrderId(orderId);
+    }
+
+    // 7.1 订单详情翻页接口
+    // 访问示例：http://localhost:8080/admin/order/item/page?pageSize=100
+    @GetMapping("/admin/order/item/page")
+    public Map<String, Object> pageOrderItems(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer pageSize) {
+        Integer lastId = decodeLastId(cursor);
+        if (lastId == null) {
+            return invalidCursor();
         }
+        int size = normalizePageSize(pageSize);
+        return pageResult(adminService.listOrderItemsAfter(lastId, size), size, OrderItem::getId);
     }
 
     /**
@@ -176,8 +278,23 @@ public class AdminController {
      * 访问示例：http://localhost:8080/admin/book/list
      */
     @GetMapping("/admin/book/list")
-    public List<Book> listAllBooks() {
-        return adminService.listAllBooks();
+    public void listAllBooks(HttpServletResponse response) throws IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        adminService.writeAllBooks(response.getOutputStream());
+    }
+
+    // 8.1 图书翻页接口
+    // 访问示例：http://localhost:8080/admin/book/page?pageSize=50
+    @GetMapping("/admin/book/page")
+    public Map<String, Object> pageBooks(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer pageSize) {
+        Integer lastId = decodeLastId(cursor);
+        if (lastId == null) {
+            return invalidCursor();
+        }
+        int size = normalizePageSize(pageSize);
+        return pageResult(adminService.listBooksAfter(lastId, size), size, Book::getBookId);
     }
 
     /**9. 图书条件查询接口（扩展：图书ID + 作者）
@@ -230,24 +347,52 @@ public class AdminController {
     public Map<String, Object> exportAdminSaleReport(
             @RequestParam(required = false) String startTime,
             @RequestParam(required = false) String endTime) {
-        // 1. 按时间筛选获取销售数据
+        // 按时间筛选获取销售数据（只查一次；Book.sale_num由SaleCounter在下单后异步累加，导出时不再同步）
         List<Map<String, Object>> saleReport = adminService.exportAdminSaleReport(startTime, endTime);
 
-        // 2. 同步销量到Book表
-        adminService.syncBookSaleNum(saleReport);
-
-        // 3. 重新查询（确保同步后的数据）
-        List<Map<String, Object>> newSaleReport = adminService.exportAdminSaleReport(startTime, endTime);
-
         return new HashMap<String, Object>() {{
             put("code", 200);
             put("msg", "报表导出成功");
-            put("data", newSaleReport);
+            put("data", saleReport);
             put("timeRange", startTime != null && endTime != null ?
                     startTime + " 至 " + endTime : "全部时间");
         }};
     }
 
+    /**
+     * 11.1 流式导出销量报表（文件下载，逐行写出，不在内存中攒整个报表）
+     * 访问示例：http://localhost:8080/admin/sale/export/stream?startTime=2026-01-01&endTime=2026-01-31
+     * 访问示例（NDJSON）：http://localhost:8080/admin/sale/export/stream?format=ndjson
+     */
+    @GetMapping("/admin/sale/export/stream")
+    public void streamAdminSaleReport(
+            @RequestParam(required = false) String startTime,
+            @RequestParam(required = false) String endTime,
+            @RequestParam(required = false, defaultValue = "csv") String format,
+            HttpServletResponse response) throws IOException {
+        boolean ndjson = "ndjson".equalsIgnoreCase(format);
+        response.setCharacterEncoding("UTF-8");
+        response.setContentType(ndjson ? "application/x-ndjson;charset=UTF-8" : "text/csv;charset=UTF-8");
+        response.setHeader("Content-Disposition",
+                "attachment; filename=\"sale-report." + (ndjson ? "ndjson" : "csv") + "\"");
+        adminService.writeAdminSaleReport(startTime, endTime, format, response.getOutputStream());
+    }
+
+    /**
+     * 11.2 全量重建每日销量汇总表（汇总数据异常时手动修复，平时由每日任务维护）
+     * 重建在后台进行，接口立即返回；data.lastRebuild是上一次重建的结果，可再次调用查看
+     * 访问示例：POST http://localhost:8080/admin/sale/rollup/rebuild
+     */
+    @PostMapping("/admin/sale/rollup/rebuild")
+    public Map<String, Object> rebuildSaleRollup() {
+        Map<String, Object> data = adminService.rebuildSaleRollup();
+        Map<String, Object> result = new HashMap<>();
+        result.put("code", 200);
+        result.put("msg", Boolean.TRUE.equals(data.get("started")) ? "销量汇总表重建已开始，在后台进行" : "销量汇总表正在重建中，请稍后再查看");
+        result.put("data", data);
+        return result;
+    }
+
     /**
      * 12. 按订单状态筛选销量
      * 访问示例：http://localhost:8080/admin/sale/stat/state?state=2
@@ -258,6 +403,21 @@ public class AdminController {
         return adminService.statSaleByOrderState(state);
     }
 
+    /**
+     * 12.1 按订单状态销量与数据库对账（列出内存与数据库不一致的图书）
+     * 访问示例：http://localhost:8080/admin/sale/stat/state/check
+     * 访问示例（不一致时修复）：http://localhost:8080/admin/sale/stat/state/check?repair=true
+     */
+    @GetMapping("/admin/sale/stat/state/check")
+    public Map<String, Object> checkStateSaleMatrix(
+            @RequestParam(required = false, defaultValue = "false") boolean repair) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("code", 200);
+        result.put("msg", "对账完成");
+        result.put("data", adminService.checkStateSaleMatrix(repair));
+        return result;
+    }
+
     /**
      * 13. 下架图书接口（stock_num设为-1标记下架）
      * 访问示例：http://localhost:8080/admin/book/remove?bookId=1
@@ -320,4 +480,79 @@ public class AdminController {
         }
         return result;
     }
+
+    /**
+     * 图书缓存统计接口
+     * 访问示例：http://localhost:8080/admin/cache/book/stats
+     */
+    @GetMapping("/admin/cache/book/stats")
+    public Map<String, Object> bookCacheStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("code", 200);
+        result.put("msg", "查询成功");
+        result.put("data", adminService.getBookCacheStats());
+        return result;
+    }
+
+    /**
+     * 用户缓存统计接口
+     * 访问示例：http://localhost:8080/admin/cache/user/stats
+     */
+    @GetMapping("/admin/cache/user/stats")
+    public Map<String, Object> userCacheStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("code", 200);
+        result.put("msg", "查询成功");
+        result.put("data", adminService.getUserCacheStats());
+        return result;
+    }
+
+    /**
+     * 用户端拦截器各路由规则的放行/拒绝次数
+     * 访问示例：http://localhost:8080/admin/stats/routes
+     */
+    @GetMapping("/admin/stats/routes")
+    public Map<String, Object> routeStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("code", 200);
+        result.put("msg", "查询成功");
+        result.put("data", userLoginInterceptor.routeStats());
+        return result;
+    }
+
+    // ========== 翻页接口公用方法 ==========
+    // 解析游标（上一页最后一条的主键）；不传游标从头开始返回0，游标无效返回null
+    private static Integer decodeLastId(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        long[] keys = PageCursor.decode(cursor, 1);
+        return keys == null ? null : (int) keys[0];
+    }
+
+    // 每页条数：默认50，最多500
+    private static int normalizePageSize(Integer pageSize) {
+        if (pageSize == null || pageSize <= 0) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        return Math.min(pageSize, MAX_PAGE_SIZE);
+    }
+
+    // 翻页结果：data为本页数据，nextCursor为下一页游标（没有下一页时为null）
+    private static <T> Map<String, Object> pageResult(List<T> list, int pageSize, Function<T, Integer> idOf) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("code", 200);
+        result.put("msg", "查询成功");
+        result.put("data", list);
+        result.put("nextCursor", list.size() < pageSize ? null
+                : PageCursor.encode(idOf.apply(list.get(list.size() - 1))));
+        return result;
+    }
+
+    private static Map<String, Object> invalidCursor() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("code", 400);
+        result.put("msg", "翻页游标无效");
+        return result;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,201 @@
+package org.example.bookmall.controller;
+
+import org.example.bookmall.storage.CoverStorage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 图书封面下载（替代WebConfig里/upload/cover/**的静态资源映射）
+ * - 封面文件名唯一且写入后不再修改（新封面按内容哈希命名，旧封面是UUID），所以可以让浏览器永久缓存：
+ *   Cache-Control: immutable + 一年max-age，带强ETag，If-None-Match命中返回304
+ * - 支持单段Range请求（206/416）
+ * - 文件内容零拷贝发送：Tomcat支持sendfile时交给连接器用sendfile发送，否则用FileChannel.transferTo写到响应
+ */
+@RestController
+public class CoverController {
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+    // 只允许“名字.扩展名”，不能带路径，也不能访问上传中的临时文件（以.开头）
+    private static final Pattern FILE_NAME = Pattern.compile("[A-Za-z0-9_-]+\\.[A-Za-z0-9]{1,5}");
+    // 按内容哈希命名的封面：文件名本身就是强ETag
+    private static final Pattern HASH_NAME = Pattern.compile("[0-9a-f]{64}\\..+");
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("webp", "image/webp");
+        CONTENT_TYPES.put("bmp", "image/bmp");
+    }
+
+    // 封面存储（取文件目录）
+    @Autowired
+    private CoverStorage coverStorage;
+
+    // 访问示例：http://localhost:8080/upload/cover/<sha256>.jpg
+    @GetMapping("/upload/cover/{fileName:.+}")
+    public void getCover(@PathVariable String fileName, HttpServletRequest request,
+                         HttpServletResponse response) throws IOException {
+        if (!FILE_NAME.matcher(fileName).matches()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        Path file = coverStorage.getDirectory().resolve(fileName);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (!attributes.isRegularFile()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long size = attributes.size();
+        String etag = HASH_NAME.matcher(fileName).matches()
+                ? "\"" + fileName.substring(0, 64) + "\""
+                : "\"" + Long.toHexString(size) + "-" + Long.toHexString(attributes.lastModifiedTime().toMillis()) + "\"";
+
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", CACHE_CONTROL);
+        response.setDateHeader("Last-Modified", attributes.lastModifiedTime().toMillis());
+        response.setHeader("Accept-Ranges", "bytes");
+
+        // 1. 浏览器已缓存同一文件：304
+        if (matchesETag(request.getHeader("If-None-Match"), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        // 2. Range：只处理单段；If-Range与当前ETag不一致时返回整个文件
+        long start = 0;
+        long end = size - 1;
+        String range = request.getHeader("Range");
+        String ifRange = request.getHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] bounds = parseRange(range, size);
+            if (bounds == null) {
+                response.setHeader("Content-Range", "bytes */" + size);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + size);
+            }
+        }
+        long length = end - start + 1;
+        String extension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+        response.setContentType(CONTENT_TYPES.getOrDefault(extension, "application/octet-stream"));
+        response.setContentLengthLong(length);
+        if ("HEAD".equals(request.getMethod()) || length == 0) {
+            return;
+        }
+
+        // 3. 发送文件内容
+        if (Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))) {
+            // 交给Tomcat连接器：响应头写完后由连接器用sendfile把文件直接发到socket
+            request.setAttribute("org.apache.tomcat.sendfile.filename", file.toAbsolutePath().toString());
+            request.setAttribute("org.apache.tomcat.sendfile.start", start);
+            request.setAttribute("org.apache.tomcat.sendfile.end", end + 1);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, out);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+        }
+    }
+
+    // If-None-Match是否包含当前ETag（支持*、逗号分隔的多个值和弱比较W/前缀）
+    private static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 解析单段Range：返回{start, end}；格式不支持（多段、非bytes、格式错误）返回空数组表示按整个文件返回；
+    // 范围超出文件返回null（416）
+    private static long[] parseRange(String range, long size) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // bytes=-N：最后N个字节
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                if (last.isEmpty()) {
+                    end = size - 1;
+                } else {
+                    long lastByte = Long.parseLong(last);
+                    if (lastByte < start) {
+                        // bytes=5-3 格式错误，忽略Range
+                        return new long[0];
+                    }
+                    end = Math.min(lastByte, size - 1);
+                }
+            }
+            if (start >= size || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+}
@@ -5,14 +5,20 @@ package org.example.bookmall.controller;
 //接口层，直接对接浏览器前端
 //接受前端请求：把参数传给业务层，再把业务层的结果返回给前端
 
+import org.example.bookmall.auth.SessionTokenService;
 import org.example.bookmall.dto.BatchOrderRequest;
+import org.example.bookmall.dto.BookRow;
 import org.example.bookmall.dto.OrderBookDTO;
+import org.example.bookmall.dto.UserRow;
 import org.example.bookmall.service.UserService;
 import org.example.bookmall.utils.ResultUtil;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -24,6 +30,9 @@ public class UserController {
     @Resource // 自动注入你写的UserService
     private UserService userService;
 
+    @Resource // 登录令牌（bookmall.auth.mode=token时代替Session）
+    private SessionTokenService tokenService;
+
 
     // 1. 用户注册接口（POST请求，传参：loginName/password/phonenumber）
     @PostMapping("/register")
@@ -40,11 +49,23 @@ public class UserController {
     public ResultUtil login(
             @RequestParam String loginName,
             @RequestParam String password,
-            HttpSession session) { // 新增HttpSession参数
+            HttpServletRequest request,
+            HttpServletResponse response) {
         // 调用Service登录
         ResultUtil result = userService.userLogin(loginName, password);
-        // 登录成功时，往Session存入LOGIN_USER（和拦截器对应）
-        if (result.getCode() == 200) { // ResultUtil成功的code是200
+        if (result.getCode() != 200) { // ResultUtil成功的code是200
+            // 登录失败不创建Session
+            return result;
+        }
+        if (tokenService.isTokenMode()) {
+            // 令牌模式：签发令牌写入Cookie，同时放进返回数据
+            @SuppressWarnings("unchecked")
+            Map<String, Object> data = (Map<String, Object>) result.getData();
+            UserRow user = (UserRow) data.get("userInfo");
+            data.put("token", tokenService.login(response, SessionTokenService.ROLE_USER, user.getUserId()));
+        } else {
+            // 登录成功时，往Session存入LOGIN_USER（和拦截器对应）
+            HttpSession session = request.getSession();
             session.setAttribute("LOGIN_USER", loginName); // 存入用户名，也可存用户ID
         }
         return result;
@@ -129,24 +150,30 @@ public class UserController {
     // UserController.java 中添加以下方法：
 
     // 10. 获取所有图书（按销量排序，分页）
+    // 传cursor（上一页返回的nextCursor）时按游标翻页，忽略page
     @GetMapping("/getAllBooks")
     public ResultUtil getAllBooks(
             @RequestParam(defaultValue = "1") Integer page,
-            @RequestParam(defaultValue = "12") Integer pageSize) {
-        return userService.getAllBooks(page, pageSize);
+            @RequestParam(defaultValue = "12") Integer pageSize,
+            @RequestParam(required = false) String cursor) {
+        return userService.getAllBooks(page, pageSize, cursor);
     }
 
-    // 11. 获取热销榜全部数据
-    // UserController.java 中确保有以下接口
+    // 11. 获取热销榜全部数据（分页，边查边写JSON；单次最多返回500条，更多用nextCursor继续取）
     @GetMapping("/getAllHotBooks")
-    public ResultUtil getAllHotBooks() {
-        return userService.getAllHotBooks();
+    public void getAllHotBooks(
+            @RequestParam(defaultValue = "1") Integer page,
+            @RequestParam(required = false) Integer pageSize,
+            @RequestParam(required = false) String cursor,
+            HttpServletResponse response) throws IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        userService.writeAllHotBooks(page, pageSize, cursor, response.getOutputStream());
     }
 
     //查询用户接口
     @GetMapping("/get")
     public ResultUtil getUser(String loginName) {
-        List<Map<String, Object>> user = userService.getUserByLoginName(loginName); // 调用Service
+        List<UserRow> user = userService.getUserByLoginName(loginName); // 调用Service
         if (user.isEmpty()) {
             return ResultUtil.fail("用户不存在");
         }
@@ -157,12 +184,12 @@ public class UserController {
     // UserController.java
     @GetMapping("/getBookById")
     public ResultUtil getBookById(@RequestParam Integer bookId) {
-        List<Map<String, Object>> bookList = userService.getBookById(bookId);
-        if (bookList == null || bookList.isEmpty()) {
+        BookRow book = userService.getBookById(bookId);
+        if (book == null) {
             return ResultUtil.fail("图书不存在");
         }
-        // 确保返回的数据包含cover_url字段
-        return ResultUtil.success(bookList.get(0));
+        // BookRow序列化字段与数据库列名一致（含cover_url）
+        return ResultUtil.success(book);
     }
 
 }
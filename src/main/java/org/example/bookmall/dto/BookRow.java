@@ -0,0 +1,86 @@
+package org.example.bookmall.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.math.BigDecimal;
+
+/**
+ * 图书只读快照（对应Book表一行，不可变，可安全放入缓存共享）
+ * JSON字段名保持数据库列名（bid/book_name/...），与前端原有读取方式一致
+ */
+public final class BookRow {
+    private final Integer bid;          // 书号
+    private final String bookName;      // 书名
+    private final String author;        // 作者
+    private final BigDecimal price;     // 单价
+    private final Integer stockNum;     // 库存：-1=下架、0=无货、≥1=有货
+    private final Integer saleNum;      // 销量
+    private final String bookType;      // 分类
+    private final String coverUrl;      // 封面URL
+
+    public BookRow(Integer bid, String bookName, String author, BigDecimal price,
+                   Integer stockNum, Integer saleNum, String bookType, String coverUrl) {
+        this.bid = bid;
+        this.bookName = bookName;
+        this.author = author;
+        this.price = price;
+        this.stockNum = stockNum;
+        this.saleNum = saleNum;
+        this.bookType = bookType;
+        this.coverUrl = coverUrl;
+    }
+
+    @JsonProperty("bid")
+    public Integer getBid() {
+        return bid;
+    }
+
+    @JsonProperty("book_name")
+    public String getBookName() {
+        return bookName;
+    }
+
+    @JsonProperty("author")
+    public String getAuthor() {
+        return author;
+    }
+
+    @JsonProperty("price")
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    @JsonProperty("stock_num")
+    public Integer getStockNum() {
+        return stockNum;
+    }
+
+    @JsonProperty("sale_num")
+    public Integer getSaleNum() {
+        return saleNum;
+    }
+
+    @JsonProperty("book_type")
+    public String getBookType() {
+        return bookType;
+    }
+
+    @JsonProperty("cover_url")
+    public String getCoverUrl() {
+        return coverUrl;
+    }
+
+    @Override
+    public String toString() {
+        return "BookRow{" +
+                "bid=" + bid +
+                ", bookName='" + bookName + '\'' +
+                ", author='" + author + '\'' +
+                ", price=" + price +
+                ", stockNum=" + stockNum +
+                ", saleNum=" + saleNum +
+                ", bookType='" + bookType + '\'' +
+                ", coverUrl='" + coverUrl + '\'' +
+                '}';
+    }
+}
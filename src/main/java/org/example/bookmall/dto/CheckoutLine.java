@@ -0,0 +1,70 @@
+package org.example.bookmall.dto;
+
+import java.math.BigDecimal;
+
+/**
+ * 一次下单（单本）交给BookOrderMapper.placeOrders的参数，执行后回填订单号、单价和剩余库存
+ * reserved=true表示库存已由内存租约预留，SQL里不再扣库存
+ */
+public final class CheckoutLine {
+    private final Integer userId;       // 购买用户ID
+    private final Integer bookId;       // 图书bid
+    private final String bookName;      // 书名（写入OrderItem）
+    private final int num;              // 购买数量
+    private final boolean reserved;     // 库存是否已在内存预留
+    private Integer orderId;            // 下单成功后的订单号，失败（库存不足/无价格）为null
+    private BigDecimal unitPrice;       // 下单时数据库中的单价
+    private Integer stockAfter;         // 扣减后的剩余库存（预留的由调用方填写）
+
+    public CheckoutLine(Integer userId, Integer bookId, String bookName, int num, boolean reserved) {
+        this.userId = userId;
+        this.bookId = bookId;
+        this.bookName = bookName;
+        this.num = num;
+        this.reserved = reserved;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public Integer getBookId() {
+        return bookId;
+    }
+
+    public String getBookName() {
+        return bookName;
+    }
+
+    public int getNum() {
+        return num;
+    }
+
+    public boolean isReserved() {
+        return reserved;
+    }
+
+    public Integer getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(Integer orderId) {
+        this.orderId = orderId;
+    }
+
+    public BigDecimal getUnitPrice() {
+        return unitPrice;
+    }
+
+    public void setUnitPrice(BigDecimal unitPrice) {
+        this.unitPrice = unitPrice;
+    }
+
+    public Integer getStockAfter() {
+        return stockAfter;
+    }
+
+    public void setStockAfter(Integer stockAfter) {
+        this.stockAfter = stockAfter;
+    }
+}
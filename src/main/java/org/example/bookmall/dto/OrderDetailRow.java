@@ -0,0 +1,82 @@
+package org.example.bookmall.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.math.BigDecimal;
+
+/**
+ * 订单明细只读快照（OrderItem关联Book的一行，不可变）
+ * JSON字段名与原查询列名/别名一致（bookPrice、bookAuthor沿用原别名）
+ */
+public final class OrderDetailRow {
+    private final Integer orderId;      // 订单号
+    private final Integer userId;       // 购买用户ID
+    private final Integer bid;          // 书号
+    private final String bookName;      // 书名
+    private final Integer num;          // 购买数量
+    private final BigDecimal bookPrice; // 图书单价
+    private final String bookAuthor;    // 作者
+    private final String coverUrl;      // 封面URL
+
+    public OrderDetailRow(Integer orderId, Integer userId, Integer bid, String bookName, Integer num,
+                          BigDecimal bookPrice, String bookAuthor, String coverUrl) {
+        this.orderId = orderId;
+        this.userId = userId;
+        this.bid = bid;
+        this.bookName = bookName;
+        this.num = num;
+        this.bookPrice = bookPrice;
+        this.bookAuthor = bookAuthor;
+        this.coverUrl = coverUrl;
+    }
+
+    @JsonProperty("order_id")
+    public Integer getOrderId() {
+        return orderId;
+    }
+
+    @JsonProperty("user_id")
+    public Integer getUserId() {
+        return userId;
+    }
+
+    @JsonProperty("bid")
+    public Integer getBid() {
+        return bid;
+    }
+
+    @JsonProperty("book_name")
+    public String getBookName() {
+        return bookName;
+    }
+
+    @JsonProperty("num")
+    public Integer getNum() {
+        return num;
+    }
+
+    @JsonProperty("bookPrice")
+    public BigDecimal getBookPrice() {
+        return bookPrice;
+    }
+
+    @JsonProperty("bookAuthor")
+    public String getBookAuthor() {
+        return bookAuthor;
+    }
+
+    @JsonProperty("cover_url")
+    public String getCoverUrl() {
+        return coverUrl;
+    }
+
+    @Override
+    public String toString() {
+        return "OrderDetailRow{" +
+                "orderId=" + orderId +
+                ", bid=" + bid +
+                ", bookName='" + bookName + '\'' +
+                ", num=" + num +
+                '}';
+    }
+}
@@ -0,0 +1,62 @@
+package org.example.bookmall.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * 订单只读快照（对应[Order]表一行，不可变）
+ * JSON字段名保持数据库列名（order_id/user_id/...），与前端原有读取方式一致
+ */
+public final class OrderRow {
+    private final Integer orderId;      // 订单号
+    private final Integer userId;       // 购买用户ID
+    private final Date saleTime;        // 下单时间
+    private final Integer state;        // 订单状态：0-删除，1-正常（待支付），2-交易（已完成）
+    private final BigDecimal salePrice; // 总金额
+
+    public OrderRow(Integer orderId, Integer userId, Date saleTime, Integer state, BigDecimal salePrice) {
+        this.orderId = orderId;
+        this.userId = userId;
+        this.saleTime = saleTime;
+        this.state = state;
+        this.salePrice = salePrice;
+    }
+
+    @JsonProperty("order_id")
+    public Integer getOrderId() {
+        return orderId;
+    }
+
+    @JsonProperty("user_id")
+    public Integer getUserId() {
+        return userId;
+    }
+
+    @JsonProperty("sale_time")
+    public Date getSaleTime() {
+        return saleTime;
+    }
+
+    @JsonProperty("state")
+    public Integer getState() {
+        return state;
+    }
+
+    @JsonProperty("sale_price")
+    public BigDecimal getSalePrice() {
+        return salePrice;
+    }
+
+    @Override
+    public String toString() {
+        return "OrderRow{" +
+                "orderId=" + orderId +
+                ", userId=" + userId +
+                ", saleTime=" + saleTime +
+                ", state=" + state +
+                ", salePrice=" + salePrice +
+                '}';
+    }
+}
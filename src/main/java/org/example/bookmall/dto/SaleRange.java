@@ -0,0 +1,77 @@
+package org.example.bookmall.dto;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * 销量报表的时间范围拆分：[start, end] 拆成
+ * - 汇总表部分：完整覆盖且已结束的整天 [dayFrom, dayTo)
+ * - 实时部分：开头不足一天的 [start, dayFrom 00:00) 和结尾（含今天）的 [dayTo 00:00, end]
+ * 没有可用的整天时汇总表部分为空，整个范围实时统计
+ */
+public final class SaleRange {
+    // 结束时间达到这个时刻才算覆盖了当天（与原报表“补23:59:59”的约定一致）
+    private static final LocalTime END_OF_DAY = LocalTime.of(23, 59, 59);
+
+    private final LocalDate dayFrom;
+    private final LocalDate dayTo;
+    private final LocalDateTime liveFrom;
+    private final LocalDateTime liveCut;
+    private final LocalDateTime liveTail;
+    private final LocalDateTime liveTo;
+
+    private SaleRange(LocalDate dayFrom, LocalDate dayTo, LocalDateTime liveFrom, LocalDateTime liveCut,
+                      LocalDateTime liveTail, LocalDateTime liveTo) {
+        this.dayFrom = dayFrom;
+        this.dayTo = dayTo;
+        this.liveFrom = liveFrom;
+        this.liveCut = liveCut;
+        this.liveTail = liveTail;
+        this.liveTo = liveTo;
+    }
+
+    // today：数据库当前日期，今天及以后的数据一律实时统计
+    public static SaleRange split(LocalDateTime start, LocalDateTime end, LocalDate today) {
+        LocalDate first = start.toLocalTime().equals(LocalTime.MIDNIGHT)
+                ? start.toLocalDate() : start.toLocalDate().plusDays(1);
+        LocalDate last = !end.toLocalTime().isBefore(END_OF_DAY)
+                ? end.toLocalDate().plusDays(1) : end.toLocalDate();
+        if (last.isAfter(today)) {
+            last = today;
+        }
+        if (!first.isBefore(last)) {
+            // 没有完整的已结束天：汇总表部分为空区间，实时部分覆盖整个范围
+            return new SaleRange(first, first, start, start, start, end);
+        }
+        return new SaleRange(first, last, start, first.atStartOfDay(), last.atStartOfDay(), end);
+    }
+
+    public boolean usesRollup() {
+        return dayFrom.isBefore(dayTo);
+    }
+
+    // 与SaleRollupMapper中SQL占位符的顺序一致
+    public Object[] toParams() {
+        return new Object[]{
+                Date.valueOf(dayFrom), Date.valueOf(dayTo),
+                Timestamp.valueOf(liveFrom), Timestamp.valueOf(liveCut),
+                Timestamp.valueOf(liveTail), Timestamp.valueOf(liveTo)};
+    }
+
+    public LocalDate getDayFrom() {
+        return dayFrom;
+    }
+
+    public LocalDate getDayTo() {
+        return dayTo;
+    }
+
+    @Override
+    public String toString() {
+        return "SaleRange{rollup=[" + dayFrom + ", " + dayTo + "), live=[" + liveFrom + ", " + liveCut
+                + ") ∪ [" + liveTail + ", " + liveTo + "]}";
+    }
+}
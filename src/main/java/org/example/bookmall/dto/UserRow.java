@@ -0,0 +1,60 @@
+package org.example.bookmall.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * 用户只读快照（对应[User]表一行，不可变）
+ * JSON字段名保持数据库列名（user_id/login_name/...），与前端原有读取方式一致
+ * 密码只供服务端校验使用，不序列化给前端
+ */
+public final class UserRow {
+    private final Integer userId;       // 用户号
+    private final String loginName;     // 登录账号
+    private final String password;      // 密码（不输出）
+    private final String phonenumber;   // 绑定手机号
+    private final Integer isAdmin;      // 是否管理员：1是，0否
+
+    public UserRow(Integer userId, String loginName, String password, String phonenumber, Integer isAdmin) {
+        this.userId = userId;
+        this.loginName = loginName;
+        this.password = password;
+        this.phonenumber = phonenumber;
+        this.isAdmin = isAdmin;
+    }
+
+    @JsonProperty("user_id")
+    public Integer getUserId() {
+        return userId;
+    }
+
+    @JsonProperty("login_name")
+    public String getLoginName() {
+        return loginName;
+    }
+
+    @JsonIgnore
+    public String getPassword() {
+        return password;
+    }
+
+    @JsonProperty("phonenumber")
+    public String getPhonenumber() {
+        return phonenumber;
+    }
+
+    @JsonProperty("is_admin")
+    public Integer getIsAdmin() {
+        return isAdmin;
+    }
+
+    @Override
+    public String toString() {
+        return "UserRow{" +
+                "userId=" + userId +
+                ", loginName='" + loginName + '\'' +
+                ", phonenumber='" + phonenumber + '\'' +
+                ", isAdmin=" + isAdmin +
+                '}';
+    }
+}
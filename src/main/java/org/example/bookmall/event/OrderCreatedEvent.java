@@ -0,0 +1,72 @@
+package org.example.bookmall.event;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 订单创建事件（下单事务内发布，监听方用@TransactionalEventListener在事务提交后处理）
+ * 热销榜、销量统计等内存数据据此增量更新，事务回滚时不会收到事件
+ * 单本下单的组提交在SQL批内自行提交，提交成功后才由事件线程在事务外发布，所以监听方都带fallbackExecution = true
+ */
+public class OrderCreatedEvent {
+    private final Integer orderId;                  // 订单号
+    private final Integer userId;                   // 购买用户ID
+    private final Integer state;                    // 订单状态（创建即支付：2）
+    private final Map<Integer, Integer> bookNums;   // bid → 购买数量（同一本书已合并）
+    private final Map<Integer, BigDecimal> bookPrices; // bid → 下单时单价
+    private final Map<Integer, Integer> stockAfter;  // bid → 扣减后的剩余库存
+    private final LocalDateTime createTime;         // 下单时间
+
+    public OrderCreatedEvent(Integer orderId, Integer userId, Integer state,
+                             Map<Integer, Integer> bookNums, Map<Integer, BigDecimal> bookPrices,
+                             Map<Integer, Integer> stockAfter) {
+        this.orderId = orderId;
+        this.userId = userId;
+        this.state = state;
+        this.bookNums = Collections.unmodifiableMap(new LinkedHashMap<>(bookNums));
+        this.bookPrices = Collections.unmodifiableMap(new LinkedHashMap<>(bookPrices));
+        this.stockAfter = Collections.unmodifiableMap(new LinkedHashMap<>(stockAfter));
+        this.createTime = LocalDateTime.now();
+    }
+
+    public Integer getOrderId() {
+        return orderId;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public Integer getState() {
+        return state;
+    }
+
+    public Map<Integer, Integer> getBookNums() {
+        return bookNums;
+    }
+
+    public Map<Integer, BigDecimal> getBookPrices() {
+        return bookPrices;
+    }
+
+    public Map<Integer, Integer> getStockAfter() {
+        return stockAfter;
+    }
+
+    public LocalDateTime getCreateTime() {
+        return createTime;
+    }
+
+    @Override
+    public String toString() {
+        return "OrderCreatedEvent{" +
+                "orderId=" + orderId +
+                ", userId=" + userId +
+                ", state=" + state +
+                ", bookNums=" + bookNums +
+                '}';
+    }
+}
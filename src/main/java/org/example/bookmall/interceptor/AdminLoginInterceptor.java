@@ -1,6 +1,6 @@
 package org.example.bookmall.interceptor;
 
-import org.example.bookmall.entity.User;
+import org.example.bookmall.auth.SessionTokenService;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
@@ -10,15 +10,26 @@ import java.io.PrintWriter;
 
 // 拦截器：校验管理员是否登录
 public class AdminLoginInterceptor implements HandlerInterceptor {
+    private final SessionTokenService tokenService;
+
+    public AdminLoginInterceptor(SessionTokenService tokenService) {
+        this.tokenService = tokenService;
+    }
+
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
-        // 1. 获取Session
-        HttpSession session = request.getSession();
-        // 2. 校验Session中是否有管理员信息（Key与登录接口一致）
-        User loginAdmin = (User) session.getAttribute("LOGIN_ADMIN");
+        // 1. 校验登录状态：令牌模式校验签名，Session模式查Session中的管理员信息（Key与登录接口一致）
+        boolean loggedIn;
+        if (tokenService.isTokenMode()) {
+            loggedIn = tokenService.authenticate(request, SessionTokenService.ROLE_ADMIN) != null;
+        } else {
+            // 不创建新session：未登录的请求不应在服务端留下空会话
+            HttpSession session = request.getSession(false);
+            loggedIn = session != null && session.getAttribute("LOGIN_ADMIN") != null;
+        }
 
-        // 3. 未登录：返回401未授权，阻止接口访问
-        if (loginAdmin == null) {
+        // 2. 未登录：返回未登录提示，阻止接口访问
+        if (!loggedIn) {
             response.setContentType("application/json;charset=UTF-8");
             PrintWriter out = response.getWriter();
             out.write("{\"success\":false,\"msg\":\"请先登录管理员账号\"}");
@@ -26,7 +37,7 @@ public class AdminLoginInterceptor implements HandlerInterceptor {
             out.close();
             return false;
         }
-        // 4. 已登录：放行接口
+        // 3. 已登录：放行接口
         return true;
     }
 }
\ No newline at end of file
@@ -0,0 +1,233 @@
+package org.example.bookmall.interceptor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 拦截器的路由表：启动时把放行规则编译成一棵字符前缀树，每个请求查一次就知道是公开接口、静态资源还是需要登录
+ * - 精确路径：整条路径完全相同才命中（末尾多一个/也算，与Spring MVC的匹配一致）
+ * - 前缀路径：以/结尾，路径在该目录下即命中
+ * - 静态资源后缀：最后一段的扩展名
+ * 查找只按下标逐字符走树、不截取子串，不产生临时对象；路径中的 ; （如 ;jsessionid=）视为结束
+ * 传入的应是容器解码、规范化后的路径（servletPath + pathInfo）；仍带 . / .. 段的路径一律按默认规则（需要登录）处理，
+ * 防止 /user/css/..;/createOrder 之类的路径借静态资源前缀绕过登录
+ * 每条规则各有放行/拒绝计数器，没命中任何规则的请求计入默认规则
+ */
+public final class RouteTable {
+
+    public enum Access {
+        PUBLIC,         // 公开接口，不需要登录
+        STATIC,         // 静态资源，不需要登录
+        AUTHENTICATED   // 需要登录
+    }
+
+    // 只有ASCII字符能走树，其他字符直接视为不匹配
+    private static final int FANOUT = 128;
+
+    private final Node root = new Node();
+    private final String[] staticSuffixes;
+    private final Route suffixRoute;
+    private final Route defaultRoute;
+    // 所有规则（按添加顺序，统计用）
+    private final List<Route> routes = new ArrayList<>();
+
+    private RouteTable(Builder builder) {
+        this.staticSuffixes = builder.staticSuffixes.toArray(new String[0]);
+        this.suffixRoute = new Route("*" + String.join("|*", builder.staticSuffixes), Access.STATIC);
+        this.defaultRoute = new Route(builder.defaultPattern, Access.AUTHENTICATED);
+        for (Map.Entry<String, Access> rule : builder.rules.entrySet()) {
+            Route route = new Route(rule.getKey(), rule.getValue());
+            routes.add(route);
+            Node node = root;
+            String path = rule.getKey();
+            for (int i = 0; i < path.length(); i++) {
+                char c = path.charAt(i);
+                if (c >= FANOUT) {
+                    throw new IllegalArgumentException("路由只支持ASCII路径：" + path);
+                }
+                if (node.children[c] == null) {
+                    node.children[c] = new Node();
+                }
+                node = node.children[c];
+            }
+            if (path.endsWith("/")) {
+                node.prefix = route;
+            } else {
+                node.exact = route;
+            }
+        }
+        if (staticSuffixes.length > 0) {
+            routes.add(suffixRoute);
+        }
+        routes.add(defaultRoute);
+    }
+
+    public static Builder builder(String defaultPattern) {
+        return new Builder(defaultPattern);
+    }
+
+    // 按路径分类：path从start下标开始（跳过contextPath）
+    public Route match(String path, int start) {
+        int end = path.indexOf(';', start);
+        if (end < 0) {
+            end = path.length();
+        }
+        if (hasDotSegment(path, start, end)) {
+            return defaultRoute;
+        }
+        Node node = root;
+        Node parent = null;
+        // 经过的最长目录前缀
+        Route prefix = null;
+        int i = start;
+        while (i < end && node != null) {
+            if (node.prefix != null) {
+                prefix = node.prefix;
+            }
+            parent = node;
+            char c = path.charAt(i++);
+            node = c < FANOUT ? node.children[c] : null;
+        }
+        if (node != null) {
+            // 整条路径都在树上
+            if (node.exact != null) {
+                return node.exact;
+            }
+            if (node.prefix != null) {
+                return node.prefix;
+            }
+        } else if (i == end && path.charAt(end - 1) == '/' && parent.exact != null) {
+            // 精确路径末尾多一个/
+            return parent.exact;
+        }
+        if (prefix != null) {
+            return prefix;
+        }
+        return hasStaticSuffix(path, start, end) ? suffixRoute : defaultRoute;
+    }
+
+    // 各规则的放行/拒绝次数
+    public List<Map<String, Object>> stats() {
+        List<Map<String, Object>> stats = new ArrayList<>(routes.size());
+        for (Route route : routes) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("route", route.pattern);
+            item.put("access", route.access.name());
+            item.put("allowed", route.allowed.sum());
+            item.put("rejected", route.rejected.sum());
+            stats.add(item);
+        }
+        return stats;
+    }
+
+    // 是否含有 . 或 .. 路径段（未规范化的路径）
+    private static boolean hasDotSegment(String path, int start, int end) {
+        int segmentStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || path.charAt(i) == '/') {
+                int length = i - segmentStart;
+                if ((length == 1 || length == 2) && path.charAt(segmentStart) == '.'
+                        && path.charAt(i - 1) == '.') {
+                    return true;
+                }
+                segmentStart = i + 1;
+            }
+        }
+        return false;
+    }
+
+    // 最后一段（最后一个/之后）的扩展名是否是静态资源后缀（忽略大小写）
+    private boolean hasStaticSuffix(String path, int start, int end) {
+        int dot = -1;
+        for (int i = end - 1; i >= start; i--) {
+            char c = path.charAt(i);
+            if (c == '/') {
+                break;
+            }
+            if (c == '.') {
+                dot = i;
+                break;
+            }
+        }
+        if (dot < 0) {
+            return false;
+        }
+        for (String suffix : staticSuffixes) {
+            if (end - dot == suffix.length() && path.regionMatches(true, dot, suffix, 0, suffix.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 一条规则及其计数器
+    public static final class Route {
+        private final String pattern;
+        private final Access access;
+        private final LongAdder allowed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        private Route(String pattern, Access access) {
+            this.pattern = pattern;
+            this.access = access;
+        }
+
+        public Access getAccess() {
+            return access;
+        }
+
+        public void recordAllowed() {
+            allowed.increment();
+        }
+
+        public void recordRejected() {
+            rejected.increment();
+        }
+    }
+
+    private static final class Node {
+        private final Node[] children = new Node[FANOUT];
+        private Route exact;
+        private Route prefix;
+    }
+
+    public static final class Builder {
+        private final String defaultPattern;
+        private final Map<String, Access> rules = new LinkedHashMap<>();
+        private final List<String> staticSuffixes = new ArrayList<>();
+
+        private Builder(String defaultPattern) {
+            this.defaultPattern = defaultPattern;
+        }
+
+        // 精确路径（如 /user/login）
+        public Builder exact(String path, Access access) {
+            if (path.endsWith("/")) {
+                throw new IllegalArgumentException("精确路径不能以/结尾：" + path);
+            }
+            rules.put(path, access);
+            return this;
+        }
+
+        // 目录前缀（如 /user/css/），该目录下所有路径
+        public Builder prefix(String path, Access access) {
+            rules.put(path.endsWith("/") ? path : path + "/", access);
+            return this;
+        }
+
+        // 静态资源扩展名（如 .html）
+        public Builder staticSuffix(String... suffixes) {
+            for (String suffix : suffixes) {
+                staticSuffixes.add(suffix.startsWith(".") ? suffix : "." + suffix);
+            }
+            return this;
+        }
+
+        public RouteTable build() {
+            return new RouteTable(this);
+        }
+    }
+}
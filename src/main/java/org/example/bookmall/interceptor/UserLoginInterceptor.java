@@ -1,53 +1,66 @@
 package org.example.bookmall.interceptor;
 
+import org.example.bookmall.auth.SessionTokenService;
 import org.springframework.web.servlet.HandlerInterceptor;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
-import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 用户登录拦截器：适配你的用户端代码，精准拦截/放行
  */
 public class UserLoginInterceptor implements HandlerInterceptor {
 
-    // 定义需要放行的接口列表
-    private static final List<String> EXCLUDE_PATHS = Arrays.asList(
-            "/user/register",      // 注册接口
-            "/user/login",         // 登录接口
-            "/user/searchBook",    // 搜索图书
-            "/user/getHotBooks",   // 热销榜TOP10
-            "/user/getAllHotBooks", // 全部热销图书
-            "/user/getBookById",   // 图书详情
-            "/user/get",           // 用户查询
-            "/user/getAllBooks"    // 获取所有图书（分页）
-    );
+    // 放行规则：启动时编译成路由表，每个请求只查一次
+    // 接口按完整路径匹配（原来用contains，/user/get会把/user/getMyOrder等也放行）
+    private static final RouteTable.Access PUBLIC = RouteTable.Access.PUBLIC;
+    private static final RouteTable.Access STATIC = RouteTable.Access.STATIC;
+    private final RouteTable routes = RouteTable.builder("/user/**")
+            .exact("/user/register", PUBLIC)        // 注册接口
+            .exact("/user/login", PUBLIC)           // 登录接口
+            .exact("/user/searchBook", PUBLIC)      // 搜索图书
+            .exact("/user/getHotBooks", PUBLIC)     // 热销榜TOP10
+            .exact("/user/getAllHotBooks", PUBLIC)  // 全部热销图书
+            .exact("/user/getBookById", PUBLIC)     // 图书详情
+            .exact("/user/get", PUBLIC)             // 用户查询
+            .exact("/user/getAllBooks", PUBLIC)     // 获取所有图书（分页）
+            // HTML页面和静态资源也放行（让用户可以先浏览页面）
+            .prefix("/user/static/", STATIC)
+            .prefix("/user/css/", STATIC)
+            .prefix("/user/js/", STATIC)
+            .prefix("/user/images/", STATIC)
+            .staticSuffix(".html", ".css", ".js", ".png", ".jpg", ".jpeg", ".gif", ".ico", ".svg")
+            .build();
+
+    private final SessionTokenService tokenService;
+
+    public UserLoginInterceptor(SessionTokenService tokenService) {
+        this.tokenService = tokenService;
+    }
 
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
-        // 1. 获取当前请求路径
-        String requestURI = request.getRequestURI();
-
-        // 2. 检查是否是需要放行的接口
-        for (String excludePath : EXCLUDE_PATHS) {
-            if (requestURI.contains(excludePath)) {
-                return true; // 直接放行
-            }
-        }
+        // 1. 按容器解码、规范化后的路径查路由表（不用原始URI：/user/css/..;/createOrder 会被当成静态资源）
+        RouteTable.Route route = routes.match(lookupPath(request), 0);
 
-        // 3. 对于HTML页面也放行（让用户可以先浏览页面）
-        if (requestURI.endsWith(".html") ||
-                requestURI.contains("/static/") ||
-                requestURI.contains("/css/") ||
-                requestURI.contains("/js/") ||
-                requestURI.contains("/images/")) {
+        // 2. 公开接口、静态资源直接放行
+        if (route.getAccess() != RouteTable.Access.AUTHENTICATED) {
+            route.recordAllowed();
             return true;
         }
 
-        // 4. 检查登录状态
-        HttpSession session = request.getSession(false); // 不创建新session
-        if (session == null || session.getAttribute("LOGIN_USER") == null) {
+        // 3. 检查登录状态（令牌模式校验签名，Session模式查Session）
+        boolean loggedIn;
+        if (tokenService.isTokenMode()) {
+            loggedIn = tokenService.authenticate(request, SessionTokenService.ROLE_USER) != null;
+        } else {
+            HttpSession session = request.getSession(false); // 不创建新session
+            loggedIn = session != null && session.getAttribute("LOGIN_USER") != null;
+        }
+        if (!loggedIn) {
+            route.recordRejected();
             // 未登录：如果是AJAX请求，返回JSON错误
             if (isAjaxRequest(request)) {
                 response.setContentType("application/json;charset=UTF-8");
@@ -63,10 +76,26 @@ public class UserLoginInterceptor implements HandlerInterceptor {
             return false;
         }
 
-        // 5. 已登录：放行
+        // 4. 已登录：放行
+        route.recordAllowed();
         return true;
     }
 
+    /**
+     * 各路由规则的放行/拒绝次数
+     */
+    public List<Map<String, Object>> routeStats() {
+        return routes.stats();
+    }
+
+    /**
+     * 应用内的请求路径：servletPath + pathInfo（已由容器去掉contextPath和;参数、解码并处理 . / .. 段）
+     */
+    private static String lookupPath(HttpServletRequest request) {
+        String pathInfo = request.getPathInfo();
+        return pathInfo == null ? request.getServletPath() : request.getServletPath() + pathInfo;
+    }
+
     /**
      * 判断是否为AJAX请求
      */
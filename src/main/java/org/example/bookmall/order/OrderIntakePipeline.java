@@ -0,0 +1,314 @@
+package org.example.bookmall.order;
+
+import org.example.bookmall.Mapper.BookOrderMapper;
+import org.example.bookmall.cache.BookCache;
+import org.example.bookmall.cache.StockReservationEngine;
+import org.example.bookmall.dto.BookRow;
+import org.example.bookmall.dto.CheckoutLine;
+import org.example.bookmall.event.OrderCreatedEvent;
+import org.example.bookmall.utils.ResultUtil;
+import org.example.bookmall.utils.RoundTripCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 单本下单的组提交（group commit）
+ * - 并发的createOrder请求先进队列，后台线程攒几毫秒或攒够N单后，在一个事务里一起提交，整批只刷一次事务日志
+ * - 锁库存、按到达顺序分配、扣库存、插入主订单和明细、取回订单号都在一个T-SQL批里（BookOrderMapper.placeOrders），
+ *   整批只有一次数据库往返；库存不足的单独失败，不影响同批其他订单
+ * - 整批在提交前出错（死锁、约束等，XACT_ABORT已整批回滚）时拆成单个订单逐个重试，错误只落在出问题的订单上；
+ *   其他错误（连接断开、超时等）无法确定事务是否已提交，不重试，以免重复下单
+ * - 每个请求拿到自己的结果（CompletableFuture），结果在事务提交后才返回
+ * - 订单事件（热销榜、汇总表、低库存提醒等监听方）在结果返回后交给单独的事件线程按顺序发布，
+ *   不占用下单线程，也不计入请求的数据库往返
+ */
+@Component
+public class OrderIntakePipeline {
+    private static final Logger logger = LoggerFactory.getLogger(OrderIntakePipeline.class);
+
+    private final BookOrderMapper bookOrderMapper;
+    private final BookCache bookCache;
+    private final StockReservationEngine stockReservation;
+    private final ApplicationEventPublisher eventPublisher;
+    // 每批最多订单数、攒批最长等待时间、等待结果的超时时间
+    private final int maxBatch;
+    private final long maxWaitNanos;
+    private final long timeoutMillis;
+
+    private final BlockingQueue<PendingOrder> queue;
+    // 发布订单事件的单线程（保持事件顺序）；积压满了由下单线程自己发布，起到限流作用
+    private final ExecutorService eventExecutor;
+    private volatile boolean running = false;
+    private Thread worker;
+
+    @Autowired
+    public OrderIntakePipeline(BookOrderMapper bookOrderMapper, BookCache bookCache,
+                               StockReservationEngine stockReservation, ApplicationEventPublisher eventPublisher,
+                               @Value("${bookmall.order.group-commit.max-batch:64}") int maxBatch,
+                               @Value("${bookmall.order.group-commit.max-wait-ms:2}") long maxWaitMillis,
+                               @Value("${bookmall.order.group-commit.queue-capacity:10000}") int queueCapacity,
+                               @Value("${bookmall.order.group-commit.timeout-ms:10000}") long timeoutMillis) {
+        this.bookOrderMapper = bookOrderMapper;
+        this.bookCache = bookCache;
+        this.stockReservation = stockReservation;
+        this.eventPublisher = eventPublisher;
+        // 一批不超过placeOrders单次往返的上限（超过会分多次提交，失败重试时可能重复下单）
+        this.maxBatch = Math.max(1, Math.min(maxBatch, BookOrderMapper.PLACE_ORDER_MAX_LINES));
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+        this.timeoutMillis = timeoutMillis;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.eventExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "order-events");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        worker = new Thread(this::run, "order-intake");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // 关闭时停止接收新订单，队列中已有的订单处理完、事件发布完再退出
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        worker.interrupt();
+        worker.join(timeoutMillis);
+        eventExecutor.shutdown();
+        eventExecutor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // 提交一单并等待结果（book为调用方已校验过的图书）
+    public ResultUtil placeOrder(Integer userId, BookRow book, int buyNum) {
+        if (!running) {
+            return ResultUtil.fail("系统维护中，请稍后重试");
+        }
+        PendingOrder order = new PendingOrder(userId, book, buyNum, RoundTripCounter.current());
+        if (!queue.offer(order)) {
+            return ResultUtil.fail("下单人数过多，请稍后重试");
+        }
+        try {
+            return order.result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 订单仍可能在之后提交成功
+            return ResultUtil.fail("下单处理超时，请稍后在我的订单中确认");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResultUtil.fail("下单被中断，请稍后在我的订单中确认");
+        } catch (ExecutionException e) {
+            logger.error("订单处理异常：userId={}, bookId={}", userId, book.getBid(), e.getCause());
+            return ResultUtil.fail("订单创建失败");
+        }
+    }
+
+    // 后台线程：取到第一单后最多再等maxWait，或攒够maxBatch单就提交
+    private void run() {
+        List<PendingOrder> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingOrder first = running ? queue.take() : queue.poll();
+                if (first == null) {
+                    break;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingOrder next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // stop()：继续处理已取出的和队列里剩下的
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    process(batch);
+                } catch (Throwable e) {
+                    // 兜底：任何异常都不能让后台线程退出，这一批还没有结果的订单按失败返回
+                    logger.error("{}单组提交异常", batch.size(), e);
+                    for (PendingOrder order : batch) {
+                        order.result.complete(ResultUtil.fail("订单创建失败"));
+                    }
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    // 整批一次往返下单；出错则逐单重试，让错误只影响出问题的那一单
+    // 这一批的数据库往返计入批内每个请求的计数器
+    private void process(List<PendingOrder> batch) {
+        List<RoundTripCounter> counters = new ArrayList<>(batch.size());
+        batch.forEach(order -> counters.add(order.counter));
+        RoundTripCounter.attach(counters, () -> placeBatch(batch));
+    }
+
+    private void placeBatch(List<PendingOrder> batch) {
+        List<PendingOrder> placed = new ArrayList<>(batch.size());
+        List<CheckoutLine> lines = new ArrayList<>(batch.size());
+        for (PendingOrder order : batch) {
+            // 热门图书从内存租约预留，SQL里不再扣库存
+            StockReservationEngine.Reservation reserved;
+            try {
+                reserved = stockReservation.reserve(order.book.getBid(), order.buyNum);
+            } catch (Exception e) {
+                // 续租失败（数据库异常等）只让这一单失败
+                logger.error("预留库存失败：userId={}, bookId={}", order.userId, order.book.getBid(), e);
+                order.result.complete(ResultUtil.fail("订单创建失败"));
+                continue;
+            }
+            if (reserved != null && !reserved.isReserved()) {
+                order.result.complete(outOfStock(order));
+                continue;
+            }
+            order.reservation = reserved;
+            // 金额由SQL按数据库中的当前价格计算
+            order.line = new CheckoutLine(order.userId, order.book.getBid(), order.book.getBookName(), order.buyNum,
+                    reserved != null);
+            lines.add(order.line);
+            placed.add(order);
+        }
+        if (placed.isEmpty()) {
+            return;
+        }
+
+        try {
+            bookOrderMapper.placeOrders(lines);
+        } catch (Exception e) {
+            if (!rolledBack(e)) {
+                // 可能已提交：不归还预留（宁可少卖不超卖），也不重试
+                logger.error("{}单组提交结果未知", placed.size(), e);
+                for (PendingOrder order : placed) {
+                    order.result.complete(ResultUtil.fail("订单提交结果未知，请在我的订单中确认后再下单"));
+                }
+                return;
+            }
+            // 整批已回滚：归还预留的库存
+            for (PendingOrder order : placed) {
+                if (order.line.isReserved()) {
+                    stockReservation.release(order.reservation);
+                }
+            }
+            if (placed.size() == 1) {
+                PendingOrder order = placed.get(0);
+                logger.error("订单创建失败：userId={}, bookId={}", order.userId, order.book.getBid(), e);
+                order.result.complete(ResultUtil.fail("订单创建失败"));
+                return;
+            }
+            logger.warn("{}单组提交失败，逐单重试", placed.size(), e);
+            for (PendingOrder order : placed) {
+                placeBatch(Collections.singletonList(order));
+            }
+            return;
+        }
+
+        // 已提交：先返回结果，调用方不必等事件监听器（热销榜、汇总表等）执行完
+        for (PendingOrder order : placed) {
+            if (order.line.getOrderId() != null) {
+                order.result.complete(ResultUtil.success("订单创建成功"));
+                continue;
+            }
+            if (order.line.isReserved()) {
+                // 预留的订单只会因价格被清空而失败：归还预留
+                stockReservation.release(order.reservation);
+                order.result.complete(ResultUtil.fail("图书ID：" + order.book.getBid() + "价格异常，无法下单"));
+            } else {
+                order.result.complete(outOfStock(order));
+            }
+        }
+        List<OrderCreatedEvent> events = new ArrayList<>(placed.size());
+        for (PendingOrder order : placed) {
+            CheckoutLine line = order.line;
+            if (line.getOrderId() == null) {
+                continue;
+            }
+            Integer bookId = line.getBookId();
+            Integer stockAfter;
+            if (line.isReserved()) {
+                stockAfter = stockReservation.stockOf(bookId);
+            } else {
+                stockAfter = line.getStockAfter();
+                bookCache.invalidate(bookId);
+            }
+            events.add(new OrderCreatedEvent(line.getOrderId(), line.getUserId(), 2,
+                    Collections.singletonMap(bookId, line.getNum()),
+                    Collections.singletonMap(bookId, line.getUnitPrice()),
+                    Collections.singletonMap(bookId, stockAfter)));
+        }
+        if (!events.isEmpty()) {
+            eventExecutor.execute(() -> publish(events));
+        }
+    }
+
+    // 在事件线程上逐个发布（不在事务中，监听方以fallbackExecution立即处理，此时已提交）
+    // 某个监听方出错只记日志，不影响其余事件
+    private void publish(List<OrderCreatedEvent> events) {
+        for (OrderCreatedEvent event : events) {
+            try {
+                eventPublisher.publishEvent(event);
+            } catch (Exception e) {
+                logger.error("订单事件处理失败：orderId={}", event.getOrderId(), e);
+            }
+        }
+    }
+
+    // 是否是数据库在提交前报出的错误：死锁/锁超时、约束冲突都发生在COMMIT之前的语句上，
+    // XACT_ABORT保证整批已回滚（COMMIT之后只剩读表变量的SELECT，不会报这类错）
+    private static boolean rolledBack(Exception e) {
+        return e instanceof PessimisticLockingFailureException || e instanceof DataIntegrityViolationException;
+    }
+
+    private static ResultUtil outOfStock(PendingOrder order) {
+        return ResultUtil.fail("图书[" + order.book.getBid() + "]库存不足，下单失败");
+    }
+
+    // 队列中的一单
+    private static final class PendingOrder {
+        private final Integer userId;
+        private final BookRow book;
+        private final int buyNum;
+        // 提交请求的线程上的往返计数器（可能为null）
+        private final RoundTripCounter counter;
+        private final CompletableFuture<ResultUtil> result = new CompletableFuture<>();
+        // 只在后台线程中读写
+        private CheckoutLine line;
+        // 内存租约的预留凭证，不由内存预留管理时为null
+        private StockReservationEngine.Reservation reservation;
+
+        private PendingOrder(Integer userId, BookRow book, int buyNum, RoundTripCounter counter) {
+            this.userId = userId;
+            this.book = book;
+            this.buyNum = buyNum;
+            this.counter = counter;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.example.bookmall.report;
+
+import org.example.bookmall.Mapper.SaleRollupMapper;
+import org.example.bookmall.dto.SaleRange;
+import org.example.bookmall.event.OrderCreatedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 每日销量汇总（SaleDailyRollup）的维护：
+ * - 启动时表为空则按月全量回填，否则补齐最后一天到昨天的数据（表由迁移脚本db/migration/V2__sale_daily_rollup.sql创建，
+ *   未建表时报表使用实时统计）
+ * - 订单提交后增量MERGE当天的汇总行
+ * - 每天凌晨重建前一天（修正增量失败、跨零点提交等导致的偏差）
+ * - 管理员手动全量重建在后台线程进行，同一时间只允许一个全量重建
+ * 报表只从汇总表读取“已结束的整天”，今天始终实时统计，所以增量写入只需最终正确
+ * 汇总表只存销量，销售额在报表查询时按图书当前价格计算，和实时统计部分口径相同
+ */
+@Component
+public class SaleRollup {
+    private static final Logger logger = LoggerFactory.getLogger(SaleRollup.class);
+    // 报表时间参数的格式（前端datetime-local只到分钟）
+    private static final DateTimeFormatter[] TIME_FORMATS = {
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"),
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")};
+
+    private final SaleRollupMapper saleRollupMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    // 汇总表是否已回填完成（未完成时报表回退到全量实时统计）
+    private volatile boolean ready = false;
+    // 是否有全量重建在进行
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    // 最近一次后台全量重建的结果（rows/costMillis/finishedAt/error），还没跑过时为null
+    private volatile Map<String, Object> lastRebuild;
+    // 手动全量重建的后台线程
+    private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sale-rollup-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public SaleRollup(SaleRollupMapper saleRollupMapper, TransactionTemplate transactionTemplate) {
+        this.saleRollupMapper = saleRollupMapper;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    // 启动完成后回填
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        try {
+            if (!saleRollupMapper.rollupTableExists()) {
+                logger.warn("未找到销量汇总表SaleDailyRollup（见db/migration/V2__sale_daily_rollup.sql），报表将使用实时统计");
+                return;
+            }
+            LocalDate lastDay = saleRollupMapper.getLastRollupDay();
+            if (lastDay == null) {
+                if (rebuilding.compareAndSet(false, true)) {
+                    try {
+                        rebuildAll();
+                    } finally {
+                        rebuilding.set(false);
+                    }
+                }
+            } else {
+                rebuild(lastDay, saleRollupMapper.getCurrentDate());
+                ready = true;
+            }
+        } catch (Exception e) {
+            logger.error("销量汇总表初始化失败，报表将使用实时统计", e);
+        }
+    }
+
+    // 订单提交后增量累加（失败只记日志，由每日重建修正）
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onOrderCreated(OrderCreatedEvent event) {
+        try {
+            saleRollupMapper.mergeOrder(event.getOrderId());
+        } catch (Exception e) {
+            logger.warn("订单{}的销量汇总增量更新失败，等待每日重建修正", event.getOrderId(), e);
+        }
+    }
+
+    // 每天凌晨重建前一天
+    @Scheduled(cron = "${bookmall.sale-rollup.rebuild-cron:0 10 0 * * *}")
+    public void rebuildYesterday() {
+        try {
+            LocalDate today = saleRollupMapper.getCurrentDate();
+            rebuild(today.minusDays(1), today);
+        } catch (Exception e) {
+            logger.error("销量汇总表每日重建失败", e);
+        }
+    }
+
+    // 在后台线程全量重建，立即返回；已有全量重建在进行时返回false
+    public boolean startRebuildAll() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            rebuildExecutor.execute(() -> {
+                long begin = System.currentTimeMillis();
+                Map<String, Object> result = new HashMap<>();
+                try {
+                    result.put("rows", rebuildAll());
+                } catch (Exception e) {
+                    logger.error("销量汇总表全量重建失败", e);
+                    result.put("error", e.getMessage());
+                } finally {
+                    result.put("costMillis", System.currentTimeMillis() - begin);
+                    result.put("finishedAt", LocalDateTime.now().toString());
+                    lastRebuild = result;
+                    rebuilding.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rebuilding.set(false);
+            throw e;
+        }
+        return true;
+    }
+
+    // 最近一次后台全量重建的结果，还没跑过时为null
+    public Map<String, Object> getLastRebuild() {
+        return lastRebuild;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebuildExecutor.shutdownNow();
+    }
+
+    // 全量回填：从最早的订单开始按月重建到昨天，每月一个事务，避免一个大事务长时间锁表
+    // 返回重建的汇总行数
+    public int rebuildAll() {
+        LocalDate today = saleRollupMapper.getCurrentDate();
+        LocalDate first = saleRollupMapper.getFirstOrderDay();
+        int rows = 0;
+        if (first != null) {
+            for (LocalDate from = first.withDayOfMonth(1); from.isBefore(today); from = from.plusMonths(1)) {
+                LocalDate to = from.plusMonths(1).isBefore(today) ? from.plusMonths(1) : today;
+                rows += rebuild(from, to);
+            }
+        }
+        ready = true;
+        logger.info("销量汇总表全量重建完成：共{}行", rows);
+        return rows;
+    }
+
+    // 报表时间范围拆分；汇总表未就绪或时间格式无法识别时返回null，调用方使用原实时SQL
+    // startTime/endTime为已补全时分秒的字符串
+    public SaleRange plan(String startTime, String endTime) {
+        if (!ready) {
+            return null;
+        }
+        LocalDateTime start = parseTime(startTime);
+        LocalDateTime end = parseTime(endTime);
+        if (start == null || end == null || end.isBefore(start)) {
+            return null;
+        }
+        return SaleRange.split(start, end, saleRollupMapper.getCurrentDate());
+    }
+
+    // 重建[from, to)，删除和插入在同一事务内
+    private int rebuild(LocalDate from, LocalDate to) {
+        if (!from.isBefore(to)) {
+            return 0;
+        }
+        Integer rows = transactionTemplate.execute(status -> saleRollupMapper.rebuildDays(from, to));
+        return rows == null ? 0 : rows;
+    }
+
+    private static LocalDateTime parseTime(String time) {
+        for (DateTimeFormatter format : TIME_FORMATS) {
+            try {
+                return LocalDateTime.parse(time, format);
+            } catch (DateTimeParseException e) {
+                // 尝试下一种格式
+            }
+        }
+        return null;
+    }
+}
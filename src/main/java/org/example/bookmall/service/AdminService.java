@@ -5,7 +5,10 @@ import org.example.bookmall.entity.Order;
 import org.example.bookmall.entity.OrderItem;
 import org.example.bookmall.entity.User;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.Map;
@@ -21,26 +24,41 @@ public interface AdminService {
     // 2. 新增图书 → 核心修改：返回Map
     Map<String, Object> addBook(Book book);
 
-    // 3. 库存预警（查询stock_num≤5的图书）
-    List<Book> getLowStockBooks();
+    // 3. 库存预警（查询1≤stock_num≤threshold的图书，threshold为null时使用配置的预警阈值）
+    List<Book> getLowStockBooks(Integer threshold);
 
-    // 4. 查看所有普通用户
-    List<User> listAllCommonUsers();
+    // 3.1 订阅库存预警推送（SSE）
+    SseEmitter subscribeLowStock();
 
-    // 5. 查看所有订单
-    List<Order> listAllOrders();
+    // 4. 查看所有普通用户（流式写出JSON数组）
+    void writeAllCommonUsers(OutputStream out) throws IOException;
+
+    // 4.1 普通用户翻页：user_id大于lastUserId的前pageSize个
+    List<User> listCommonUsersAfter(Integer lastUserId, int pageSize);
+
+    // 5. 查看所有订单（流式写出JSON数组）
+    void writeAllOrders(OutputStream out) throws IOException;
+
+    // 5.1 订单翻页：order_id大于lastOrderId的前pageSize个
+    List<Order> listOrdersAfter(Integer lastOrderId, int pageSize);
 
     // 6. 修改图书库存
     boolean updateBookStock(Integer bookId, Integer newStock);
 
-    // 7. 查看所有订单详情
-    List<OrderItem> listAllOrderItems();
+    // 7. 查看所有订单详情（流式写出JSON数组）
+    void writeAllOrderItems(OutputStream out) throws IOException;
+
+    // 7.1 订单详情翻页：id大于lastItemId的前pageSize个
+    List<OrderItem> listOrderItemsAfter(Integer lastItemId, int pageSize);
 
     // 按订单ID查询订单详情
     List<OrderItem> listOrderItemsByOrderId(Integer orderId);
 
-    // 8. 查看所有图书（全量查询）
-    List<Book> listAllBooks();
+    // 8. 查看所有图书（流式写出JSON数组）
+    void writeAllBooks(OutputStream out) throws IOException;
+
+    // 8.1 图书翻页：bid大于lastBookId的前pageSize个
+    List<Book> listBooksAfter(Integer lastBookId, int pageSize);
 
     // 9. 图书条件查询（扩展：图书ID + 作者）
     // 参数新增：Integer bookId, String author
@@ -62,8 +80,18 @@ public interface AdminService {
      * @return 报表数据
      */
     List<Map<String, Object>> exportAdminSaleReport(String startTime, String endTime);
-    // 新增：同步销量的方法声明
-    void syncBookSaleNum(List<Map<String, Object>> saleReport);
+    /**
+     * 流式导出销量报表（查询一次，逐行写出）
+     * @param format csv（默认）或 ndjson
+     * @param out 输出流
+     */
+    void writeAdminSaleReport(String startTime, String endTime, String format, OutputStream out) throws IOException;
+
+    // 按订单状态销量矩阵与数据库对账（repair=true时不一致则重新加载）
+    Map<String, Object> checkStateSaleMatrix(boolean repair);
+
+    // 在后台全量重建每日销量汇总表，返回是否已开始（已有重建在进行时为false）和上一次重建的结果
+    Map<String, Object> rebuildSaleRollup();
 
     /**
      * 按订单状态筛选销量
@@ -91,4 +119,16 @@ public interface AdminService {
      * @return 操作结果
      */
     boolean updateBookInfo(Integer bookId, String bookName, String author, BigDecimal price, String bookType);
+
+    /**
+     * 图书缓存统计（命中/未命中/淘汰次数）
+     * @return 统计数据
+     */
+    Map<String, Object> getBookCacheStats();
+
+    /**
+     * 用户缓存统计（命中/负缓存命中/未命中/淘汰次数）
+     * @return 统计数据
+     */
+    Map<String, Object> getUserCacheStats();
 }
\ No newline at end of file
@@ -1,10 +1,13 @@
 package org.example.bookmall.service;
 
+import org.example.bookmall.dto.BookRow;
 import org.example.bookmall.dto.OrderBookDTO;
+import org.example.bookmall.dto.UserRow;
 import org.example.bookmall.utils.ResultUtil;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
-import java.util.Map;
 
 //业务方法的说明书
 public interface UserService {
@@ -16,7 +19,7 @@ public interface UserService {
 
     //查询用户
     // UserService.java
-    public List<Map<String, Object>> getUserByLoginName(String loginName);
+    public List<UserRow> getUserByLoginName(String loginName);
 
     //查询个人信息
     ResultUtil getMyInfo(Integer userId);
@@ -27,8 +30,8 @@ public interface UserService {
     // 图书模糊搜索
     ResultUtil searchBook(String keyword);
 
-    //根据书号获得图书
-    List<Map<String, Object>> getBookById(Integer bookId);
+    //根据书号获得图书（不存在返回null）
+    BookRow getBookById(Integer bookId);
 
     // 创建订单
     ResultUtil createOrder(Integer userId, Integer bookId, Integer buyNum);
@@ -41,11 +44,11 @@ public interface UserService {
 
     //查询订单详情
     ResultUtil getOrderDetail(Integer orderId);
-    // 获取所有图书（分页）
-    ResultUtil getAllBooks(Integer page, Integer pageSize);
+    // 获取所有图书（分页；传cursor时按游标翻页）
+    ResultUtil getAllBooks(Integer page, Integer pageSize, String cursor);
 
-    // 获取全部热销图书
-    ResultUtil getAllHotBooks();
+    // 获取全部热销图书（分页，JSON流式写到out；传cursor时按游标翻页）
+    void writeAllHotBooks(Integer page, Integer pageSize, String cursor, OutputStream out) throws IOException;
 
     //热销榜前十的图书
     ResultUtil getHotBookTop10();
@@ -1,21 +1,46 @@
 package org.example.bookmall.service.impl;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.example.bookmall.entity.Book;
 import org.example.bookmall.entity.Order;
 import org.example.bookmall.entity.OrderItem;
 import org.example.bookmall.entity.User;
 import org.example.bookmall.Mapper.AdminMapper;
+import org.example.bookmall.Mapper.SaleRollupMapper;
+import org.example.bookmall.dto.BookRow;
+import org.example.bookmall.dto.SaleRange;
+import org.example.bookmall.report.SaleRollup;
+import org.example.bookmall.cache.BookCache;
+import org.example.bookmall.cache.BookIndex;
+import org.example.bookmall.cache.LowStockMonitor;
+import org.example.bookmall.cache.StockReservationEngine;
+import org.example.bookmall.cache.StateSaleMatrix;
+import org.example.bookmall.cache.UserCache;
 import org.example.bookmall.service.AdminService;
+import org.example.bookmall.storage.CoverStorage;
+import org.example.bookmall.utils.JsonStreamWriter;
+import org.apache.ibatis.session.ResultHandler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
-
-import java.io.File;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
 
 /**
  * 管理员业务实现类（核心业务逻辑）
@@ -27,6 +52,45 @@ public class AdminServiceImpl implements AdminService {
     @Autowired
     private AdminMapper adminMapper;
 
+    // 图书缓存：修改图书后需要失效
+    @Autowired
+    private BookCache bookCache;
+
+    // 用户缓存：只用于统计接口
+    @Autowired
+    private UserCache userCache;
+
+    // 封面存储：按内容哈希去重
+    @Autowired
+    private CoverStorage coverStorage;
+
+    // 图书搜索索引：新增/修改/下架/改库存后增量更新
+    @Autowired
+    private BookIndex bookIndex;
+
+    // 每日销量汇总：销量统计/导出报表的已结束整天从汇总表读取
+    @Autowired
+    private SaleRollup saleRollup;
+
+    @Autowired
+    private SaleRollupMapper saleRollupMapper;
+
+    // 库存预警有序索引：修改库存后同步更新
+    @Autowired
+    private LowStockMonitor lowStockMonitor;
+
+    // 热门图书库存租约：管理员设置库存/下架时作废
+    @Autowired
+    private StockReservationEngine stockReservation;
+
+    // 按订单状态统计的内存销量矩阵
+    @Autowired
+    private StateSaleMatrix stateSaleMatrix;
+
+    // 流式导出NDJSON/列表JSON时序列化
+    @Autowired
+    private ObjectMapper objectMapper;
+
     // 1. 管理员登录：调用Mapper查询，返回用户对象
     @Override
     public User adminLogin(String loginName, String password) {
@@ -48,14 +112,14 @@ public class AdminServiceImpl implements AdminService {
             return resultMap;
         }
 
-        // 2. 校验是否存在相同图书
-        int duplicateCount = adminMapper.countDuplicateBook(
+        // 2. 校验是否存在相同图书（查出ID，累加库存后失效缓存）
+        List<Integer> duplicateIds = adminMapper.selectDuplicateBookIds(
                 book.getBookName(),
                 book.getAuthor(),
                 book.getPrice()
         );
 
-        if (duplicateCount > 0) {
+        if (!duplicateIds.isEmpty()) {
             // 3. 存在：累加库存
             int updateRows = adminMapper.addStockToExistBook(
                     book.getBookName(),
@@ -63,6 +127,12 @@ public class AdminServiceImpl implements AdminService {
                     book.getPrice(),
                     book.getStockNum()
             );
+            // 累加库存可能让已下架(-1)的图书重新上架，索引需一并更新
+            for (Integer duplicateId : duplicateIds) {
+                bookCache.invalidate(duplicateId);
+                bookIndex.refresh(duplicateId);
+                lowStockMonitor.refresh(duplicateId);
+            }
             if (updateRows > 0) {
                 // 查询累加后的最终库存
                 Integer finalStock = adminMapper.getBookCurrentStock(
@@ -82,6 +152,8 @@ public class AdminServiceImpl implements AdminService {
             // 4. 不存在：新增图书
             int insertRows = adminMapper.insertBook(book);
             if (insertRows > 0) {
+                bookIndex.refresh(book.getBookId());
+                lowStockMonitor.update(book.getBookId(), book.getStockNum());
                 resultMap.put("success", true);
                 resultMap.put("operateType", "NEW"); // 新增图书
                 resultMap.put("finalStock", book.getStockNum()); // 初始库存
@@ -94,22 +166,54 @@ public class AdminServiceImpl implements AdminService {
         return resultMap;
     }
 
-    // 3. 库存预警：查询stock_num≤5的图书
+    // 3. 库存预警：查询1≤stock_num≤threshold的图书
     @Override
-    public List<Book> getLowStockBooks() {
-        return adminMapper.selectLowStockBooks(5);
+    public List<Book> getLowStockBooks(Integer threshold) {
+        int maxStock = threshold != null ? threshold : lowStockMonitor.getAlertThreshold();
+        // 优先查内存有序索引，未初始化完成时查库
+        List<Integer> bookIds = lowStockMonitor.lowStockBookIds(maxStock);
+        if (bookIds == null) {
+            return adminMapper.selectLowStockBooks(maxStock);
+        }
+        Map<Integer, BookRow> rows = bookCache.getAll(bookIds);
+        List<Book> books = new ArrayList<>(bookIds.size());
+        for (Integer bookId : bookIds) {
+            BookRow row = rows.get(bookId);
+            if (row != null) {
+                Book book = toBook(row);
+                // 库存以索引为准（缓存可能还是扣减前的值）
+                book.setStockNum(lowStockMonitor.stockOf(bookId));
+                books.add(book);
+            }
+        }
+        return books;
+    }
+
+    @Override
+    public SseEmitter subscribeLowStock() {
+        return lowStockMonitor.subscribe();
+    }
+
+    // 4. 查看所有普通用户（流式）
+    @Override
+    public void writeAllCommonUsers(OutputStream out) throws IOException {
+        writeArray(out, adminMapper::streamAllCommonUsers);
+    }
+
+    @Override
+    public List<User> listCommonUsersAfter(Integer lastUserId, int pageSize) {
+        return adminMapper.selectCommonUsersAfter(lastUserId == null ? 0 : lastUserId, pageSize);
     }
 
-    // 4. 查看所有普通用户
+    // 5. 查看所有订单（流式）
     @Override
-    public List<User> listAllCommonUsers() {
-        return adminMapper.selectAllCommonUsers();
+    public void writeAllOrders(OutputStream out) throws IOException {
+        writeArray(out, adminMapper::streamAllOrders);
     }
 
-    // 5. 查看所有订单
     @Override
-    public List<Order> listAllOrders() {
-        return adminMapper.selectAllOrders();
+    public List<Order> listOrdersAfter(Integer lastOrderId, int pageSize) {
+        return adminMapper.selectOrdersAfter(lastOrderId == null ? 0 : lastOrderId, pageSize);
     }
 
     // 6. 修改图书库存
@@ -119,24 +223,55 @@ public class AdminServiceImpl implements AdminService {
         if (bookId == null || newStock == null || newStock < 0) {
             return false;
         }
-        return adminMapper.updateBookStock(bookId, newStock) > 0;
+        // 以管理员设置的库存为准，内存租约中的余量作废
+        stockReservation.evict(bookId);
+        boolean success = adminMapper.updateBookStock(bookId, newStock) > 0;
+        bookCache.invalidate(bookId);
+        // 下架图书改库存即重新上架，需要重新进入索引
+        bookIndex.refresh(bookId);
+        if (success) {
+            lowStockMonitor.update(bookId, newStock);
+        }
+        return success;
     }
 
-    // 7. 查看所有订单详情
+    // 7. 查看所有订单详情（流式）
     @Override
-    public List<OrderItem> listAllOrderItems() {
-        return adminMapper.selectAllOrderItems();
+    public void writeAllOrderItems(OutputStream out) throws IOException {
+        writeArray(out, adminMapper::streamAllOrderItems);
     }
+
+    @Override
+    public List<OrderItem> listOrderItemsAfter(Integer lastItemId, int pageSize) {
+        return adminMapper.selectOrderItemsAfter(lastItemId == null ? 0 : lastItemId, pageSize);
+    }
+
     @Override
     public List<OrderItem> listOrderItemsByOrderId(Integer orderId) {
         // 调用Mapper层的按订单ID查询方法
         return adminMapper.listOrderItemsByOrderId(orderId);
     }
 
-    // 8. 查看所有图书（全量查询）
+    // 8. 查看所有图书（流式）
+    @Override
+    public void writeAllBooks(OutputStream out) throws IOException {
+        writeArray(out, adminMapper::streamAllBooks);
+    }
+
     @Override
-    public List<Book> listAllBooks() {
-        return adminMapper.selectAllBooks();
+    public List<Book> listBooksAfter(Integer lastBookId, int pageSize) {
+        return adminMapper.selectBooksAfter(lastBookId == null ? 0 : lastBookId, pageSize);
+    }
+
+    // 流式查询结果逐行写成JSON数组（与原先返回List时的格式相同），内存占用与表大小无关
+    private <T> void writeArray(OutputStream out, Consumer<ResultHandler<T>> query) throws IOException {
+        JsonStreamWriter writer = JsonStreamWriter.bareArray(objectMapper, out);
+        try {
+            query.accept(context -> writer.writeRow(context.getResultObject()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.finish(null);
     }
 
     // 9. 图书条件查询（扩展：图书ID + 作者）
@@ -145,8 +280,35 @@ public class AdminServiceImpl implements AdminService {
         // 价格参数转换：Double → BigDecimal
         BigDecimal minPriceBD = minPrice != null ? new BigDecimal(minPrice) : null;
         BigDecimal maxPriceBD = maxPrice != null ? new BigDecimal(maxPrice) : null;
-        // 调用Mapper，传入新增的bookId和author参数
-        return adminMapper.selectBooksByCondition(bookId, bookName, author, bookType, minPriceBD, maxPriceBD);
+        // 优先查内存索引（分类位图、价格有序数组、书名/作者倒排表求交集），再从图书缓存取数据
+        List<Integer> bookIds = bookIndex.query(bookId, bookName, author, bookType, minPriceBD, maxPriceBD);
+        if (bookIds == null) {
+            // 索引未就绪：调用Mapper，传入新增的bookId和author参数
+            return adminMapper.selectBooksByCondition(bookId, bookName, author, bookType, minPriceBD, maxPriceBD);
+        }
+        Map<Integer, BookRow> rows = bookCache.getAll(bookIds);
+        List<Book> books = new ArrayList<>(bookIds.size());
+        for (Integer id : bookIds) {
+            BookRow row = rows.get(id);
+            if (row != null) {
+                books.add(toBook(row));
+            }
+        }
+        return books;
+    }
+
+    // BookRow → Book实体（字段与selectBooksByCondition的返回一致）
+    private static Book toBook(BookRow row) {
+        Book book = new Book();
+        book.setBookId(row.getBid());
+        book.setBookName(row.getBookName());
+        book.setAuthor(row.getAuthor());
+        book.setPrice(row.getPrice());
+        book.setSaleNum(row.getSaleNum());
+        book.setStockNum(row.getStockNum());
+        book.setBookType(row.getBookType());
+        book.setCoverUrl(row.getCoverUrl());
+        return book;
     }
 
     // ========== 新增：销售榜业务逻辑实现 ==========
@@ -169,37 +331,104 @@ public class AdminServiceImpl implements AdminService {
                     += " 23:59:59";  // 补时分秒，确保覆盖当天最后一秒
         }
 
+        // 已结束的整天读每日汇总表，其余时间段实时统计
+        SaleRange range = saleRollup.plan(startTime, endTime);
+        if (range != null && range.usesRollup()) {
+            return saleRollupMapper.statSaleData(range);
+        }
         return adminMapper.statAdminSaleData(startTime, endTime);
     }
 
     @Override
     public List<Map<String, Object>> exportAdminSaleReport(String startTime, String endTime) {
-        // 时间参数预处理
+        startTime = reportStartTime(startTime);
+        endTime = reportEndTime(endTime);
+        SaleRange range = saleRollup.plan(startTime, endTime);
+        if (range != null && range.usesRollup()) {
+            return saleRollupMapper.exportSaleReport(range);
+        }
+        // 调用Mapper，传入时间参数
+        return adminMapper.exportAdminSaleReport(startTime, endTime);
+    }
+
+    // 流式导出报表：查询一次，逐行写出CSV或NDJSON
+    // 销量（Book.sale_num）由SaleCounter在下单后异步累加，导出时不再同步
+    @Override
+    public void writeAdminSaleReport(String startTime, String endTime, String format, OutputStream out) throws IOException {
+        boolean csv = !"ndjson".equalsIgnoreCase(format);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        if (csv) {
+            // BOM：Excel按UTF-8打开中文不乱码
+            writer.write('\uFEFF');
+            writer.write("排名,图书ID,图书名称,作者,单价,销售数量,销售额,库存\n");
+        }
+        startTime = reportStartTime(startTime);
+        endTime = reportEndTime(endTime);
+        SaleRange range = saleRollup.plan(startTime, endTime);
+        Consumer<Map<String, Object>> rowWriter = row -> {
+            try {
+                if (csv) {
+                    writer.write(csvLine(row.get("rank"), row.get("bookId"), row.get("bookName"), row.get("author"),
+                            row.get("price"), row.get("totalSale"), row.get("totalRevenue"), row.get("stockNum")));
+                } else {
+                    writer.write(objectMapper.writeValueAsString(row));
+                    writer.write('\n');
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        try {
+            if (range != null && range.usesRollup()) {
+                saleRollupMapper.streamSaleReport(range, rowWriter);
+            } else {
+                adminMapper.streamAdminSaleReport(startTime, endTime, context -> rowWriter.accept(context.getResultObject()));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+    }
+
+    // CSV一行：含逗号、引号、换行的字段用双引号包起来，内部引号写两遍
+    private static String csvLine(Object... values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            String value = values[i] == null ? "" : values[i].toString();
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+            } else {
+                sb.append(value);
+            }
+        }
+        return sb.append('\n').toString();
+    }
+
+    // 报表时间参数预处理：为空取默认值，只有日期时补时分秒
+    private static String reportStartTime(String startTime) {
         if (startTime == null || startTime.isEmpty()) {
-            startTime = "1970-01-01 00:00:00";
-        } else if (!startTime.contains(" ")) {
-            startTime += " 00:00:00";
+            return "1970-01-01 00:00:00";
         }
+        return startTime.contains(" ") ? startTime : startTime + " 00:00:00";
+    }
 
+    private static String reportEndTime(String endTime) {
         if (endTime == null || endTime.isEmpty()) {
-            endTime = "2100-12-31 23:59:59";
-        } else if (!endTime.contains(" ")) {
-            endTime += " 23:59:59";
+            return "2100-12-31 23:59:59";
         }
-
-        // 调用Mapper，传入时间参数
-        return adminMapper.exportAdminSaleReport(startTime, endTime);
+        return endTime.contains(" ") ? endTime : endTime + " 23:59:59";
     }
 
-    // 新增：同步销量到Book表
+    // 全量重建每日销量汇总表（后台进行，立即返回）
     @Override
-    public void syncBookSaleNum(List<Map<String, Object>> saleReport) {
-        for (Map<String, Object> item : saleReport) {
-            Integer bookId = (Integer) item.get("bookId");
-            Integer totalSale = (Integer) item.get("totalSale");
-            adminMapper
-                    .syncBookSaleNum(bookId, totalSale);
-        }
+    public Map<String, Object> rebuildSaleRollup() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("started", saleRollup.startRebuildAll());
+        result.put("lastRebuild", saleRollup.getLastRebuild());
+        return result;
     }
 
     @Override
@@ -208,7 +437,50 @@ public class AdminServiceImpl implements AdminService {
         if (state == null || (state != 0 && state != 1 && state != 2)) {
             state = 2; // 默认统计已完成订单
         }
-        return adminMapper.statSaleByOrderState(state);
+        // 优先读内存销量矩阵，未初始化完成时查库
+        List<Map<String, Object>> saleList = stateSaleMatrix.statByState(state);
+        return saleList != null ? saleList : adminMapper.statSaleByOrderState(state);
+    }
+
+    // 按状态销量矩阵与数据库汇总结果对账，repair=true且不一致时从数据库重新加载
+    @Override
+    public Map<String, Object> checkStateSaleMatrix(boolean repair) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        boolean consistent = true;
+        for (int state = 0; state <= 2; state++) {
+            Map<Integer, Long> memory = stateSaleMatrix.totalsByState(state);
+            if (memory == null) {
+                result.put("ready", false);
+                return result;
+            }
+            Map<Integer, Long> db = new HashMap<>();
+            for (Map<String, Object> row : adminMapper.statSaleByOrderState(state)) {
+                db.put(((Number) row.get("bookId")).intValue(), ((Number) row.get("totalSale")).longValue());
+            }
+            List<Map<String, Object>> mismatches = new ArrayList<>();
+            Set<Integer> bookIds = new TreeSet<>(memory.keySet());
+            bookIds.addAll(db.keySet());
+            for (Integer bookId : bookIds) {
+                Long memoryTotal = memory.getOrDefault(bookId, 0L);
+                Long dbTotal = db.getOrDefault(bookId, 0L);
+                if (!memoryTotal.equals(dbTotal)) {
+                    Map<String, Object> mismatch = new LinkedHashMap<>();
+                    mismatch.put("bookId", bookId);
+                    mismatch.put("memory", memoryTotal);
+                    mismatch.put("db", dbTotal);
+                    mismatches.add(mismatch);
+                }
+            }
+            consistent &= mismatches.isEmpty();
+            result.put("state" + state, mismatches);
+        }
+        result.put("ready", true);
+        result.put("consistent", consistent);
+        if (!consistent && repair) {
+            stateSaleMatrix.reload();
+            result.put("repaired", true);
+        }
+        return result;
     }
 
     // ========== 新增：下架图书业务逻辑实现 ==========
@@ -224,7 +496,13 @@ public class AdminServiceImpl implements AdminService {
             return false;
         }
         // 3. 执行下架：将stock_num设为-1
+        stockReservation.evict(bookId);
         int updateRows = adminMapper.logicDeleteBook(bookId);
+        bookCache.invalidate(bookId);
+        bookIndex.refresh(bookId);
+        if (updateRows > 0) {
+            lowStockMonitor.update(bookId, -1);
+        }
         return updateRows > 0;
     }
 
@@ -234,25 +512,18 @@ public class AdminServiceImpl implements AdminService {
         if (file.isEmpty()) {
             throw new Exception("请选择要上传的封面图片");
         }
-        // 2. 生成唯一文件名（避免重复）
-        String originalFileName = file.getOriginalFilename();
-        String suffix = originalFileName.substring(originalFileName.lastIndexOf("."));
-        String newFileName = UUID.randomUUID() + suffix;
-
-        // 3. 保存图片到服务器（路径：项目根目录/upload/cover）
-        String uploadPath = System.getProperty("user.dir") + "/upload/cover/";
-        File uploadDir = new File(uploadPath);
-        if (!uploadDir.exists()) {
-            uploadDir.mkdirs(); // 自动创建文件夹
+        // 2. 按内容哈希保存图片（路径：项目根目录/upload/cover），同一张图片只存一份，返回访问URL
+        //    旧封面不在这里删除（可能被其他图书共用），由CoverStorage定期清理无引用的文件
+        String coverUrl;
+        try {
+            coverUrl = coverStorage.store(file);
+        } catch (IllegalArgumentException e) {
+            throw new Exception(e.getMessage());
         }
-        File destFile = new File(uploadPath + newFileName);
-        file.transferTo(destFile);
-
-        // 4. 生成封面访问URL（前端可直接访问）
-        String coverUrl = "http://localhost:8080/upload/cover/" + newFileName;
 
-        // 5. 更新数据库中图书的封面URL
+        // 3. 更新数据库中图书的封面URL
         adminMapper.updateBookCover(bookId, coverUrl);
+        bookCache.invalidate(bookId);
 
         return coverUrl;
     }
@@ -270,7 +541,20 @@ public class AdminServiceImpl implements AdminService {
         }
 
         // 调用Mapper更新图书信息
-        return adminMapper.updateBookInfo(bookId, bookName, author, price, bookType) > 0;
+        boolean success = adminMapper.updateBookInfo(bookId, bookName, author, price, bookType) > 0;
+        bookCache.invalidate(bookId);
+        bookIndex.refresh(bookId);
+        return success;
+    }
+
+    @Override
+    public Map<String, Object> getBookCacheStats() {
+        return bookCache.stats();
+    }
+
+    @Override
+    public Map<String, Object> getUserCacheStats() {
+        return userCache.stats();
     }
 
 }
\ No newline at end of file
@@ -1,42 +1,108 @@
 package org.example.bookmall.service.impl;
 
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.example.bookmall.Mapper.BookOrderMapper;
 import org.example.bookmall.Mapper.UserMapper;
+import org.example.bookmall.cache.BookCache;
+import org.example.bookmall.cache.BookIndex;
+import org.example.bookmall.cache.HotBookLeaderboard;
+import org.example.bookmall.cache.StockReservationEngine;
+import org.example.bookmall.cache.UserCache;
+import org.example.bookmall.cache.UserKeyFilter;
+import org.example.bookmall.dto.BookRow;
 import org.example.bookmall.dto.OrderBookDTO;
+import org.example.bookmall.dto.OrderDetailRow;
+import org.example.bookmall.dto.OrderRow;
+import org.example.bookmall.dto.UserRow;
+import org.example.bookmall.event.OrderCreatedEvent;
+import org.example.bookmall.order.OrderIntakePipeline;
 import org.example.bookmall.service.UserService;
+import org.example.bookmall.utils.JsonStreamWriter;
+import org.example.bookmall.utils.PageCursor;
 import org.example.bookmall.utils.ResultUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 
 import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 
 //业务逻辑的实现处
 @Service
 public class UserServiceImpl implements UserService {
     private static final Logger logger = LoggerFactory.getLogger(UserServiceImpl.class);
+    // 图书分页：单页最大条数、页码模式允许的最大OFFSET（更深的页请用cursor）
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_OFFSET = 10000;
+    // 图书总数缓存时间（总数只用于显示页数，允许短时间不准）
+    private static final long BOOK_COUNT_TTL_MILLIS = 30_000L;
+    // 全部热销图书：单次响应默认/最大条数
+    private static final int HOT_BOOKS_DEFAULT_PAGE_SIZE = 500;
+    private static final int HOT_BOOKS_MAX_PAGE_SIZE = 500;
+    // 搜索：单次最多返回的图书数；索引命中超过SEARCH_MAX_CANDIDATES本时不经过BookCache（见searchBook）
+    private static final int SEARCH_MAX_RESULTS = 50;
+    private static final int SEARCH_MAX_CANDIDATES = 200;
     // @Autowired注入Mapper
     // 使用构造函数注入代替字段注入（解决IDEA警告）
     private final UserMapper userMapper;
     private final BookOrderMapper bookOrderMapper;
     private final JdbcTemplate jdbcTemplate;
+    private final BookCache bookCache;
+    private final UserCache userCache;
+    private final UserKeyFilter userKeyFilter;
+    private final BookIndex bookIndex;
+    private final HotBookLeaderboard hotBookLeaderboard;
+    private final StockReservationEngine stockReservation;
+    private final OrderIntakePipeline orderIntakePipeline;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ObjectMapper objectMapper;
+    // 多本下单的事务（预留库存要在事务外进行，不用@Transactional）
+    private final TransactionTemplate orderTransaction;
+    // 图书总数缓存
+    private volatile int cachedBookCount = -1;
+    private volatile long cachedBookCountAt = 0L;
 
     @Autowired
-    public UserServiceImpl(UserMapper userMapper, BookOrderMapper bookOrderMapper, JdbcTemplate jdbcTemplate) {
+    public UserServiceImpl(UserMapper userMapper, BookOrderMapper bookOrderMapper, JdbcTemplate jdbcTemplate,
+                           BookCache bookCache, UserCache userCache, UserKeyFilter userKeyFilter,
+                           BookIndex bookIndex, HotBookLeaderboard hotBookLeaderboard,
+                           StockReservationEngine stockReservation, OrderIntakePipeline orderIntakePipeline,
+                           ApplicationEventPublisher eventPublisher, ObjectMapper objectMapper,
+                           PlatformTransactionManager transactionManager) {
         this.userMapper = userMapper;
         this.bookOrderMapper = bookOrderMapper;
         this.jdbcTemplate = jdbcTemplate;
+        this.bookCache = bookCache;
+        this.userCache = userCache;
+        this.userKeyFilter = userKeyFilter;
+        this.bookIndex = bookIndex;
+        this.hotBookLeaderboard = hotBookLeaderboard;
+        this.stockReservation = stockReservation;
+        this.orderIntakePipeline = orderIntakePipeline;
+        this.eventPublisher = eventPublisher;
+        this.objectMapper = objectMapper;
+        this.orderTransaction = new TransactionTemplate(transactionManager);
     }
     // ----------------复用函数------------------
     //判断用户是否存在
@@ -45,10 +111,8 @@ public class UserServiceImpl implements UserService {
         if (userId == null || userId <= 0) {
             return ResultUtil.fail("用户ID必须为正整数");
         }
-        //调用Mapper里的getUserById，获取用户list
-        //判断用户是否存在
-        List<Map<String, Object>> userList = userMapper.getUserById(userId);
-        if (userList == null || userList.isEmpty()) {
+        //判断用户是否存在（走用户缓存，不存在的ID也会短时间缓存）
+        if (!userCache.exists(userId)) {
             return ResultUtil.fail("用户不存在，无法操作");
         }
         return null;
@@ -106,44 +170,42 @@ public class UserServiceImpl implements UserService {
             return ResultUtil.fail("购买数量需大于0");
         }
 
-        List<Map<String, Object>> bookList = this.getBookById(bookId);
-        logger.info("查询图书结果：bookList={}", bookList); // 打印bookList是否为空
-
-        if (bookList == null || bookList.isEmpty()) {
-            return ResultUtil.fail("该书不存在");
-        }
+        return checkBookAndStockValid(bookId, this.getBookById(bookId), buyNum);
+    }
 
-        Map<String, Object> book = bookList.get(0);
-        logger.info("图书详情：book={}", book); // 打印book的所有字段
+    //检查图书库存（图书已由上层加载好，批量下单时复用同一份图书数据）
+    private ResultUtil checkBookAndStockValid(Integer bookId, BookRow book, Integer buyNum) {
+        logger.info("图书详情：bookId={}, book={}", bookId, book); // 打印book的所有字段
 
-        // 尝试多种可能的字段名
-        Object stockObj = book.get("stock_num");
-        if (stockObj == null) {
-            stockObj = book.get("stockNum");
+        if (book == null) {
+            return ResultUtil.fail("该书不存在");
         }
 
-        logger.info("库存字段值：stockObj={}", stockObj); // 打印stock_num是否为null
-
-        if (stockObj == null) {
+        Integer stockNum = book.getStockNum();
+        if (stockNum == null) {
             return ResultUtil.fail("该书库存信息异常");
         }
 
-        Integer stockNum = 0;
-        try {
-            stockNum = Integer.parseInt(stockObj.toString());
-        } catch (NumberFormatException e) {
-            return ResultUtil.fail("库存格式错误");
-        }
-
+        // 热门图书有一部分库存在内存租约里，要加上
+        stockNum = stockReservation.effectiveStock(bookId, stockNum);
         if (stockNum < buyNum) {
             return ResultUtil.fail("库存不足，该书当前库存：" + stockNum);
         }
         return null;
     }
 
+    //一次性加载购物车里的所有图书：bid → BookRow（校验和计价共用，不再逐本查询）
+    private Map<Integer, BookRow> loadBookMap(List<OrderBookDTO> bookList) {
+        List<Integer> bookIds = bookList.stream()
+                .map(OrderBookDTO::getBookId)
+                .distinct()
+                .collect(Collectors.toList());
+        return bookCache.getAll(bookIds);
+    }
+
     //-------------------核心功能------------------------
     //查询用户
-    public List<Map<String, Object>> getUserByLoginName(String loginName) {
+    public List<UserRow> getUserByLoginName(String loginName) {
         return userMapper.getUser(loginName); // 调用Mapper的查询方法
     }
 
@@ -163,14 +225,29 @@ public class UserServiceImpl implements UserService {
             ResultUtil pwdCheck = checkPwdValid(password);
             if (pwdCheck != null) return pwdCheck;
 
-            List<Map<String, Object>> existUser = userMapper.checkLoginNameExist(loginName);
-            if (existUser != null && !existUser.isEmpty()) {
-                return ResultUtil.fail("该用户名已被注册");
+            // 布隆过滤器说不存在且有唯一约束兜底时不用查库；其他节点并发注册的同名用户由约束拦下
+            if (userKeyFilter.mightContainLoginName(loginName)) {
+                List<Integer> existUser = userMapper.checkLoginNameExist(loginName);
+                if (existUser != null && !existUser.isEmpty()) {
+                    return ResultUtil.fail("该用户名已被注册");
+                }
             }
 
             int addResult = userMapper.addUser(loginName, password, phonenumber, 0);
+            if (addResult > 0) {
+                userKeyFilter.add(loginName, phonenumber);
+                // 新用户的ID可能之前被当作不存在缓存过
+                userCache.invalidateAbsent();
+            }
             return addResult > 0 ? ResultUtil.success("注册成功") : ResultUtil.fail("注册失败");
 
+        } catch (DuplicateKeyException e) {
+            // 违反唯一约束：登录名或手机号已被（其他节点）注册，查一次确认是哪个
+            List<Integer> existUser = userMapper.checkLoginNameExist(loginName);
+            if (existUser != null && !existUser.isEmpty()) {
+                return ResultUtil.fail("该用户名已被注册");
+            }
+            return ResultUtil.fail("该手机号已注册，请直接登录");
         } catch (Exception e) {
             if (e.getMessage().contains("Duplicate") && e.getMessage().contains("phonenumber")) {
                 return ResultUtil.fail("该手机号已注册，请直接登录");
@@ -191,7 +268,7 @@ public class UserServiceImpl implements UserService {
         if (res != null) return res;
 
         //根据用户输入的名字，密码，获取这个用户的list
-        List<Map<String, Object>> userList = userMapper.checkLogin(loginName, password);
+        List<UserRow> userList = userMapper.checkLogin(loginName, password);
         //对比list里的内容
         if (userList == null || userList.isEmpty()) {
             return ResultUtil.fail("登录名或密码错误，请重新输入");
@@ -212,10 +289,12 @@ public class UserServiceImpl implements UserService {
         ResultUtil res = checkUserValid(userId);
         if (res != null) return res;
 
-        //通过用户id获取用户的信息
-        List<Map<String, Object>> userInfo = userMapper.getUserById(userId);
-        //get（0）从List里把数据取出来，虽然只有一条
-        return ResultUtil.success(userInfo.get(0));
+        //通过用户id获取用户的信息（缓存里不含密码，返回给前端本来也不输出密码）
+        UserRow userInfo = userCache.get(userId);
+        if (userInfo == null) {
+            return ResultUtil.fail("用户不存在，无法操作");
+        }
+        return ResultUtil.success(userInfo);
     }
 
     //4.用户修改个人信息（增强版）
@@ -241,14 +320,14 @@ public class UserServiceImpl implements UserService {
             return ResultUtil.fail("原密码不能为空");
         }
 
-        // 查询用户当前信息
-        List<Map<String, Object>> userList = userMapper.getUserById(userId);
+        // 查询用户当前信息（需要密码，不走缓存）
+        List<UserRow> userList = userMapper.getUserById(userId);
         if (userList.isEmpty()) {
+            userCache.invalidate(userId);
             return ResultUtil.fail("用户不存在");
         }
 
-        Map<String, Object> user = userList.get(0);
-        String currentPassword = (String) user.get("password");
+        String currentPassword = userList.get(0).getPassword();
 
         // 验证原密码
         if (!currentPassword.equals(oldPassword)) {
@@ -261,11 +340,13 @@ public class UserServiceImpl implements UserService {
                     = checkPhoneValid(phonenumber);
             if (res != null) return res;
 
-            // 检查手机号是否已被其他用户使用
-            String checkPhoneSql = "SELECT user_id FROM [User] WHERE phonenumber = ? AND user_id != ?";
-            List<Map<String, Object>> existPhone = jdbcTemplate.queryForList(checkPhoneSql, phonenumber, userId);
-            if (existPhone != null && !existPhone.isEmpty()) {
-                return ResultUtil.fail("该手机号已被其他用户使用");
+            // 检查手机号是否已被其他用户使用（布隆过滤器说没人用就不查库）
+            if (userKeyFilter.mightContainPhone(phonenumber)) {
+                String checkPhoneSql = "SELECT user_id FROM [User] WHERE phonenumber = ? AND user_id != ?";
+                List<Integer> existPhone = jdbcTemplate.queryForList(checkPhoneSql, Integer.class, phonenumber, userId);
+                if (existPhone != null && !existPhone.isEmpty()) {
+                    return ResultUtil.fail("该手机号已被其他用户使用");
+                }
             }
         }
 
@@ -282,7 +363,17 @@ public class UserServiceImpl implements UserService {
         }
 
         // 执行动态更新（使用新密码参数）
-        int updateCount = userMapper.updateUserInfo(userId, newPassword, phonenumber);
+        int updateCount;
+        try {
+            updateCount = userMapper.updateUserInfo(userId, newPassword, phonenumber);
+        } catch (DuplicateKeyException e) {
+            // 过滤器跳过查库时，手机号冲突由唯一约束拦下
+            return ResultUtil.fail("该手机号已被其他用户使用");
+        }
+        userCache.invalidate(userId);
+        if (updateCount > 0 && StringUtils.hasText(phonenumber)) {
+            userKeyFilter.add(null, phonenumber);
+        }
 
         // 返回结果
         return updateCount > 0 ? ResultUtil.success("信息修改成功") : ResultUtil.fail("信息修改失败，请稍后重试");
@@ -298,19 +389,32 @@ public class UserServiceImpl implements UserService {
         //清洗参数
         keyword = keyword.trim();
 
-        //调用Mapper里的模糊搜索 获得图书list
-        List<Map<String, Object>> bookList = bookOrderMapper.searchBook(keyword);
+        //索引未就绪（启动中/构建失败），或关键词太宽泛（如单字命中大半个目录）时回退到Mapper里的模糊搜索：
+        //SQL按销量顺序只取前SEARCH_MAX_RESULTS本，不把大量图书装进BookCache、挤掉下单用的热门图书
+        List<Integer> bookIds = bookIndex.search(keyword);
+        if (bookIds == null || bookIds.size() > SEARCH_MAX_CANDIDATES) {
+            List<BookRow> bookList = bookOrderMapper.searchBook(keyword, SEARCH_MAX_RESULTS);
+            return bookList.isEmpty() ? ResultUtil.fail("未查询到相关图书") : ResultUtil.success(bookList);
+        }
+
+        //倒排索引命中的图书：取最新数据，只保留有货的，按销量降序取前SEARCH_MAX_RESULTS本
+        List<BookRow> bookList = bookCache.getAll(bookIds).values().stream()
+                .filter(book -> book.getStockNum() != null && book.getStockNum() > 0)
+                .sorted(Comparator.comparing((BookRow book) -> book.getSaleNum() == null ? 0 : book.getSaleNum()).reversed()
+                        .thenComparing(BookRow::getBid))
+                .limit(SEARCH_MAX_RESULTS)
+                .collect(Collectors.toList());
         return bookList.isEmpty() ? ResultUtil.fail("未查询到相关图书") : ResultUtil.success(bookList);
     }
 
-    //根据图书id获得图书
+    //根据图书id获得图书（走BookCache，不存在返回null）
     @Override
-    public List<Map<String, Object>> getBookById(Integer bookId) {
-        return bookOrderMapper.getBookById(bookId);
+    public BookRow getBookById(Integer bookId) {
+        return bookCache.get(bookId);
     }
 
     //6.创建订单
-    @Transactional// 原子操作，事务管理：确保订单创建和库存扣减要么同时成功，要么同时回滚
+    //校验通过后交给组提交队列：与同一时刻的其他下单请求合并成一个事务提交（见OrderIntakePipeline）
     @Override
     public ResultUtil createOrder(Integer userId, Integer bookId, Integer buyNum) {
         // 步骤1：校验用户合法性
@@ -318,31 +422,22 @@ public class UserServiceImpl implements UserService {
         if (res != null) {
             return res;
         }
-        // 步骤2：校验图书库存
+        // 步骤2：校验图书库存（预校验，最终以提交时锁定的库存为准）
         res = checkBookAndStockValid(bookId, buyNum);
         if (res != null) {
             return res;
         }
 
-        // 步骤3：创建订单
-        int orderResult = bookOrderMapper.createOrder(userId, bookId, buyNum);
-        if (orderResult <= 0) {
-            return ResultUtil.fail("订单创建失败");
-        }
-
-        // 步骤4：扣减图书库存（带乐观锁）
-        int reduceResult = bookOrderMapper.reduceBookStock(bookId, buyNum);
-        if (reduceResult <= 0) {
-            // 事务会自动回滚之前的订单创建操作
-            return ResultUtil.fail("图书[" + bookId + "]库存不足，下单失败");
+        // 步骤3：创建订单并扣减库存（单价、书名取自缓存中已校验的图书），等待提交结果
+        BookRow book = this.getBookById(bookId);
+        if (book.getPrice() == null) {
+            return ResultUtil.fail("图书ID：" + bookId + "价格异常，无法下单");
         }
-
-        // 所有步骤成功，返回结果
-        return ResultUtil.success("订单创建成功");
+        return orderIntakePipeline.placeOrder(userId, book, buyNum);
     }
 
     //多商品下单 - 最终无BUG版 ✅ 修复所有空指针/判空/兼容问题
-    @Transactional
+    //热门图书在事务外预留库存，其余写库操作在一个事务里（orderTransaction）
     @Override
     public ResultUtil createBatchOrder(Integer userId, List<OrderBookDTO> bookList) {
         // 原有步骤1-6：校验用户、校验图书列表、计算总金额、创建主订单、插入订单明细（不用改）
@@ -356,6 +451,7 @@ public class UserServiceImpl implements UserService {
             return ResultUtil.fail("请选择要购买的图书");
         }
         // ===== 3. 遍历校验每本书：库存充足+图书存在 =====
+        // 3.1 先校验参数
         for (OrderBookDTO bookDTO : bookList) {
             //兜底：防止单条图书数据为null
             if (bookDTO == null) {
@@ -370,56 +466,119 @@ public class UserServiceImpl implements UserService {
             if (num == null || num <= 0) {
                 return ResultUtil.fail("图书[" + bookId + "]购买数量必须为正整数");
             }
-            // 库存+图书存在校验
-            res = checkBookAndStockValid(bookId, num);
+        }
+        // 3.2 一条SQL加载全部图书，再逐本校验库存+图书存在
+        Map<Integer, BookRow> bookMap = loadBookMap(bookList);
+        for (OrderBookDTO bookDTO : bookList) {
+            res = checkBookAndStockValid(bookDTO.getBookId(), bookMap.get(bookDTO.getBookId()), bookDTO.getNum());
             if (res != null) {
                 return res;
             }
         }
-        // ===== 4. 计算订单总金额 （带完整空值兜底) =====
-        BigDecimal totalPrice = new BigDecimal("0");
+        // ===== 4. 预校验价格（订单金额以下单时数据库中的价格为准，见insertMainOrder） =====
         for (OrderBookDTO bookDTO : bookList) {
             Integer bookId = bookDTO.getBookId();
-            Integer num = bookDTO.getNum();
-            List<Map<String, Object>> book = this.getBookById(bookId);
-            if (book == null || book.isEmpty()) {
+            BookRow book = bookMap.get(bookId);
+            if (book == null) {
                 return ResultUtil.fail("图书ID：" + bookId + "不存在");
             }
-            Map<String, Object> bookMap = book.get(0);
-            if (bookMap == null || bookMap.get("price") == null) {
+            if (book.getPrice() == null) {
                 return ResultUtil.fail("图书ID：" + bookId + "价格异常，无法下单");
             }
-            BigDecimal price = new BigDecimal(bookMap.get("price").toString());
-            totalPrice = totalPrice.add(price.multiply(new BigDecimal(num)));
-        }
-        // ===== 5. 创建主订单 =====
-        Integer orderId = bookOrderMapper.insertMainOrder(userId, totalPrice);
-        if (orderId == null || orderId <= 0) {
-            return ResultUtil.fail("主订单创建失败，未生成有效订单ID");
         }
-        // ===== 6. 批量插入订单明细 =====
+        // 合并同一本书的多行（按bid升序）
+        SortedMap<Integer, Integer> bookNums = new TreeMap<>();
         for (OrderBookDTO bookDTO : bookList) {
-            Integer bookId = bookDTO.getBookId();
-            Integer num = bookDTO.getNum();
-            int insertResult = bookOrderMapper.insertOrderItem(orderId, userId, bookId, num);
-            if (insertResult <= 0) {
-                return ResultUtil.fail("图书ID：" + bookId + "的订单明细插入失败");
-            }
+            bookNums.merge(bookDTO.getBookId(), bookDTO.getNum(), Integer::sum);
         }
-
-        // 新增步骤7：批量扣减库存（核心修改）
-        for (OrderBookDTO bookDTO : bookList) {
-            Integer bookId = bookDTO.getBookId();
-            Integer num = bookDTO.getNum();
-            int reduceResult = bookOrderMapper.reduceBookStock(bookId, num);
-            if (reduceResult <= 0) {
-                // 任意一本扣减失败，事务回滚所有操作
-                return ResultUtil.fail("图书[" + bookId + "]库存不足，批量下单失败");
+        if (bookNums.size() > BookOrderMapper.ORDER_MAX_BOOKS) {
+            return ResultUtil.fail("一个订单最多购买" + BookOrderMapper.ORDER_MAX_BOOKS + "种图书");
+        }
+        // ===== 5. 热门图书先从内存租约预留（在下单事务之外） =====
+        // 续租要在独立事务里访问数据库，放在下单事务里会让一个请求同时占两个连接
+        Map<Integer, StockReservationEngine.Reservation> reservations = new HashMap<>();
+        SortedMap<Integer, Integer> dbBookNums = new TreeMap<>();
+        List<Integer> failedBookIds = new ArrayList<>();
+        try {
+            for (Map.Entry<Integer, Integer> e : bookNums.entrySet()) {
+                StockReservationEngine.Reservation reserved = stockReservation.reserve(e.getKey(), e.getValue());
+                if (reserved == null) {
+                    dbBookNums.put(e.getKey(), e.getValue());
+                } else if (reserved.isReserved()) {
+                    reservations.put(e.getKey(), reserved);
+                } else {
+                    failedBookIds.add(e.getKey());
+                }
             }
+        } catch (RuntimeException e) {
+            releaseReserved(reservations);
+            throw e;
         }
+        if (!failedBookIds.isEmpty()) {
+            releaseReserved(reservations);
+            return ResultUtil.fail("图书" + failedBookIds + "库存不足，批量下单失败");
+        }
+
+        // ===== 6. 下单事务：创建主订单、插入明细、其余图书一条SQL扣库存；失败时回滚并归还预留 =====
+        Map<Integer, BigDecimal> bookPrices = new HashMap<>();
+        Map<Integer, Integer> remainingStocks = new HashMap<>();
+        Integer[] orderId = new Integer[1];
+        ResultUtil failure;
+        try {
+            failure = orderTransaction.execute(status -> {
+                // 金额按数据库中的当前价格计算，单价回填到bookPrices
+                orderId[0] = bookOrderMapper.insertMainOrder(userId, bookNums, bookPrices);
+                if (orderId[0] == null || orderId[0] <= 0) {
+                    for (Integer bookId : bookNums.keySet()) {
+                        if (bookPrices.get(bookId) == null) {
+                            return ResultUtil.fail("图书ID：" + bookId + "价格异常，无法下单");
+                        }
+                    }
+                    return ResultUtil.fail("主订单创建失败，未生成有效订单ID");
+                }
+                // 批量插入订单明细（JDBC批处理，一次往返）
+                int[] insertResults = bookOrderMapper.batchInsertOrderItems(orderId[0], userId, bookList, bookMap);
+                for (int i = 0; i < insertResults.length; i++) {
+                    // SUCCESS_NO_INFO：驱动未返回行数，视为成功
+                    if (insertResults[i] <= 0 && insertResults[i] != Statement.SUCCESS_NO_INFO) {
+                        status.setRollbackOnly();
+                        return ResultUtil.fail("图书ID：" + bookList.get(i).getBookId() + "的订单明细插入失败");
+                    }
+                }
+                // 同一本书已合并，按bid升序一条SQL扣减，避免并发购物车交叉加锁死锁
+                Map<Integer, Integer> reduced = bookOrderMapper.reduceBookStockBatch(dbBookNums);
+                if (reduced.size() < dbBookNums.size()) {
+                    List<Integer> outOfStock = dbBookNums.keySet().stream()
+                            .filter(id -> !reduced.containsKey(id))
+                            .collect(Collectors.toList());
+                    // 任意一本扣减失败，事务回滚所有操作
+                    status.setRollbackOnly();
+                    return ResultUtil.fail("图书" + outOfStock + "库存不足，批量下单失败");
+                }
+                remainingStocks.putAll(reduced);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            releaseReserved(reservations);
+            throw e;
+        }
+        if (failure != null) {
+            releaseReserved(reservations);
+            return failure;
+        }
+
+        // ===== 7. 已提交：刷新缓存、发布订单事件 =====
+        reservations.keySet().forEach(bookId -> remainingStocks.put(bookId, stockReservation.stockOf(bookId)));
+        dbBookNums.keySet().forEach(bookCache::invalidate);
+        eventPublisher.publishEvent(new OrderCreatedEvent(orderId[0], userId, 2, bookNums, bookPrices, remainingStocks));
 
         // 原有返回结果（不用改）
-        return ResultUtil.success("多商品订单创建成功，订单ID：" + orderId);
+        return ResultUtil.success("多商品订单创建成功，订单ID：" + orderId[0]);
+    }
+
+    // 下单失败时归还事务外预留的库存
+    private void releaseReserved(Map<Integer, StockReservationEngine.Reservation> reservations) {
+        reservations.values().forEach(stockReservation::release);
     }
 
     //7.用户查询个人订单列表
@@ -428,7 +587,7 @@ public class UserServiceImpl implements UserService {
         ResultUtil res = checkUserValid(userId);
         if (res != null) return res;
 
-        List<Map<String, Object>> orderList = bookOrderMapper.getMyOrder(userId);
+        List<OrderRow> orderList = bookOrderMapper.getMyOrder(userId);
         return orderList.isEmpty() ? ResultUtil.success("暂无订单") : ResultUtil.success(orderList);
     }
 
@@ -438,7 +597,7 @@ public class UserServiceImpl implements UserService {
         //先判断订单id合法吗
         if (orderId == null || orderId <= 0) return ResultUtil.fail("订单ID为正整数");
 
-        List<Map<String, Object>> detailList = bookOrderMapper.getOrderDetail(orderId);
+        List<OrderDetailRow> detailList = bookOrderMapper.getOrderDetail(orderId);
         if (detailList == null || detailList.isEmpty()) {
             return ResultUtil.fail("该订单无明细数据");
         }
@@ -448,30 +607,65 @@ public class UserServiceImpl implements UserService {
     //9.用户查询热销榜
     @Override
     public ResultUtil getHotBookTop10() {
-        // 调用Mapper里的getHotBookTop10方法
-        List<Map<String, Object>> hotBookList = bookOrderMapper.getHotBookTop10();
+        // 优先读内存热销榜；未初始化完成时调用Mapper里的getHotBookTop10方法
+        List<HotBookLeaderboard.Entry> top = hotBookLeaderboard.top();
+        List<BookRow> hotBookList = top != null ? toHotBookList(top) : bookOrderMapper.getHotBookTop10();
 
         // 有热销数据→返回热销榜 无数据→返回默认推荐图书（按上架时间排序）
         if (hotBookList != null && !hotBookList.isEmpty()) {
             return ResultUtil.success(hotBookList);
         } else {
             // 调用图书查询方法，返回默认推荐（避免页面空白）
-            List<Map<String, Object>> defaultBookList = bookOrderMapper.searchBook("");
+            List<BookRow> defaultBookList = bookOrderMapper.searchBook("", SEARCH_MAX_RESULTS);
             return ResultUtil.success(defaultBookList);
         }
     }
 
+    // 热销榜条目 → 与getHotBookTop10 SQL相同的返回字段（sale_num为订单明细累计销量）
+    private List<BookRow> toHotBookList(List<HotBookLeaderboard.Entry> top) {
+        Map<Integer, BookRow> books = bookCache.getAll(top.stream()
+                .map(HotBookLeaderboard.Entry::getBookId)
+                .collect(Collectors.toList()));
+        List<BookRow> hotBookList = new ArrayList<>(top.size());
+        for (HotBookLeaderboard.Entry entry : top) {
+            BookRow book = books.get(entry.getBookId());
+            if (book == null) {
+                continue; // 图书已被删除
+            }
+            hotBookList.add(new BookRow(book.getBid(), book.getBookName(), book.getAuthor(), book.getPrice(),
+                    book.getStockNum(), (int) entry.getSaleNum(), book.getBookType(), book.getCoverUrl()));
+        }
+        return hotBookList;
+    }
+
     // 10. 获取所有图书（按销量排序，分页）
+    // 两种翻页方式：
+    // - page/pageSize：OFFSET分页，只允许浅翻页（OFFSET ≤ MAX_PAGE_OFFSET）
+    // - cursor：keyset分页，从上一页最后一行往后查，任意深度代价相同
+    // 两种方式都返回nextCursor，最后一页为null
     @Override
-    public ResultUtil getAllBooks(Integer page, Integer pageSize) {
+    public ResultUtil getAllBooks(Integer page, Integer pageSize, String cursor) {
         if (page == null || page < 1) page = 1;
         if (pageSize == null || pageSize < 1) pageSize = 12;
-
-        int offset = (page - 1) * pageSize;
-
-        // 调用Mapper获取分页数据
-        List<Map<String, Object>> bookList = bookOrderMapper.getAllBooksByPage(offset, pageSize);
-        int totalCount = bookOrderMapper.getTotalBookCount();
+        if (pageSize > MAX_PAGE_SIZE) pageSize = MAX_PAGE_SIZE;
+
+        List<BookRow> bookList;
+        if (StringUtils.hasText(cursor)) {
+            // 游标内容：上一页最后一行的(sale_num, bid)
+            long[] keys = PageCursor.decode(cursor, 2);
+            if (keys == null) {
+                return ResultUtil.fail("翻页游标无效");
+            }
+            bookList = bookOrderMapper.getAllBooksAfter((int) keys[0], (int) keys[1], pageSize);
+        } else {
+            int offset = (page - 1) * pageSize;
+            if (offset > MAX_PAGE_OFFSET) {
+                return ResultUtil.fail("页码过大，请使用cursor翻页");
+            }
+            // 调用Mapper获取分页数据
+            bookList = bookOrderMapper.getAllBooksByPage(offset, pageSize);
+        }
+        int totalCount = getCachedBookCount();
 
         Map<String, Object> result = new HashMap<>();
         result.put("books", bookList);
@@ -479,15 +673,70 @@ public class UserServiceImpl implements UserService {
         result.put("page", page);
         result.put("pageSize", pageSize);
         result.put("totalPages", (int) Math.ceil((double) totalCount / pageSize));
+        result.put("nextCursor", nextBookCursor(bookList, pageSize));
 
         return ResultUtil.success(result);
     }
 
-    // 11. 获取全部热销图书
+    // 图书总数：缓存BOOK_COUNT_TTL_MILLIS，避免每次翻页都COUNT(*)全表
+    private int getCachedBookCount() {
+        long now = System.currentTimeMillis();
+        if (cachedBookCount < 0 || now - cachedBookCountAt > BOOK_COUNT_TTL_MILLIS) {
+            cachedBookCount = bookOrderMapper.getTotalBookCount();
+            cachedBookCountAt = now;
+        }
+        return cachedBookCount;
+    }
+
+    // 根据本页最后一行生成下一页游标；不满一页说明已到最后一页
+    private String nextBookCursor(List<BookRow> bookList, int pageSize) {
+        if (bookList.size() < pageSize) {
+            return null;
+        }
+        BookRow last = bookList.get(bookList.size() - 1);
+        return PageCursor.encode(last.getSaleNum(), last.getBid());
+    }
+
+    // 11. 获取全部热销图书（分页 + 流式输出）
+    // 输出结构同ResultUtil：{"code":200,"msg":"操作成功","data":[...],"nextCursor":...}
+    // 行从ResultSet读出后直接写到响应流，内存占用与页大小无关
     @Override
-    public ResultUtil getAllHotBooks() {
-        List<Map<String, Object>> hotBookList = bookOrderMapper.getAllHotBooks();
-        return ResultUtil.success(hotBookList);
+    public void writeAllHotBooks(Integer page, Integer pageSize, String cursor, OutputStream out) throws IOException {
+        if (page == null || page < 1) page = 1;
+        if (pageSize == null || pageSize < 1) pageSize = HOT_BOOKS_DEFAULT_PAGE_SIZE;
+        if (pageSize > HOT_BOOKS_MAX_PAGE_SIZE) pageSize = HOT_BOOKS_MAX_PAGE_SIZE;
+
+        Long lastSaleNum = null;
+        Integer lastBid = null;
+        int offset = 0;
+        if (StringUtils.hasText(cursor)) {
+            long[] keys = PageCursor.decode(cursor, 2);
+            if (keys == null) {
+                objectMapper.writeValue(out, ResultUtil.fail("翻页游标无效"));
+                return;
+            }
+            lastSaleNum = keys[0];
+            lastBid = (int) keys[1];
+        } else {
+            offset = (page - 1) * pageSize;
+            if (offset > MAX_PAGE_OFFSET) {
+                objectMapper.writeValue(out, ResultUtil.fail("页码过大，请使用cursor翻页"));
+                return;
+            }
+        }
+
+        JsonStreamWriter writer = JsonStreamWriter.resultArray(objectMapper, out);
+        BookRow[] last = new BookRow[1];
+        bookOrderMapper.streamAllHotBooks(lastSaleNum, lastBid, offset, pageSize, book -> {
+            writer.writeRow(book);
+            last[0] = book;
+        });
+        // 不满一页说明已到最后一页
+        String nextCursor = null;
+        if (writer.getRowCount() == pageSize && last[0] != null) {
+            nextCursor = PageCursor.encode(last[0].getSaleNum(), last[0].getBid());
+        }
+        writer.finish(Collections.singletonMap("nextCursor", nextCursor));
     }
 }
 
@@ -0,0 +1,204 @@
+package org.example.bookmall.storage;
+
+import org.example.bookmall.Mapper.AdminMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 图书封面存储（按内容寻址）
+ * - 文件名 = 内容的SHA-256 + 扩展名，同一张图片无论上传多少次都只存一份
+ * - 上传时用NIO通道把multipart流拷贝到同目录的临时文件，边拷贝边计算哈希，拷完原子重命名为最终文件名
+ * - 定期清理：不再被任何Book.cover_url引用的文件删除（新上传的文件有宽限期，防止刚写入、还没更新数据库就被删）
+ */
+@Component
+public class CoverStorage {
+    private static final Logger logger = LoggerFactory.getLogger(CoverStorage.class);
+    // 允许的图片扩展名
+    private static final Set<String> EXTENSIONS = new HashSet<>(Arrays.asList(
+            ".jpg", ".jpeg", ".png", ".gif", ".webp", ".bmp"));
+    private static final String TEMP_PREFIX = ".upload-";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final AdminMapper adminMapper;
+    private final Path directory;
+    private final String urlPrefix;
+    private final long gcGraceMillis;
+
+    @Autowired
+    public CoverStorage(AdminMapper adminMapper,
+                        @Value("${bookmall.cover.dir:${user.dir}/upload/cover}") String directory,
+                        @Value("${bookmall.cover.url-prefix:http://localhost:8080/upload/cover/}") String urlPrefix,
+                        @Value("${bookmall.cover.gc-grace-ms:3600000}") long gcGraceMillis) {
+        this.adminMapper = adminMapper;
+        this.directory = Paths.get(directory).toAbsolutePath().normalize();
+        this.urlPrefix = urlPrefix.endsWith("/") ? urlPrefix : urlPrefix + "/";
+        this.gcGraceMillis = gcGraceMillis;
+    }
+
+    // 封面文件所在目录
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // 保存上传的封面，返回访问URL；内容相同的文件已存在时直接复用
+    public String store(MultipartFile file) throws IOException {
+        String extension = extensionOf(file.getOriginalFilename());
+        if (extension == null) {
+            throw new IllegalArgumentException("仅支持jpg/jpeg/png/gif/webp/bmp格式的图片");
+        }
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, TEMP_PREFIX, ".tmp");
+        try {
+            String hash;
+            try (InputStream in = file.getInputStream();
+                 ReadableByteChannel source = Channels.newChannel(in);
+                 FileChannel target = FileChannel.open(temp, StandardOpenOption.WRITE,
+                         StandardOpenOption.TRUNCATE_EXISTING)) {
+                hash = copy(source, target);
+            }
+            String fileName = hash + extension;
+            Path dest = directory.resolve(fileName);
+            if (touch(dest)) {
+                // 同一张图片已经存过：已刷新修改时间，避免在更新数据库之前被清理掉
+                logger.debug("封面{}已存在，复用已有文件", fileName);
+            } else {
+                try {
+                    Files.move(temp, dest, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    // 并发上传了同一张图片，对方已经写好
+                }
+            }
+            return urlPrefix + fileName;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // 定期删除没有图书引用的封面文件和残留的临时文件
+    @Scheduled(initialDelayString = "${bookmall.cover.gc-ms:86400000}",
+            fixedDelayString = "${bookmall.cover.gc-ms:86400000}")
+    public void collectGarbage() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        // 先记下时间再查引用：这之后才写入的文件一定在宽限期内
+        long cutoff = System.currentTimeMillis() - gcGraceMillis;
+        Set<String> referenced = new HashSet<>();
+        try {
+            for (String coverUrl : adminMapper.selectCoverUrls()) {
+                referenced.add(coverUrl.substring(coverUrl.lastIndexOf('/') + 1));
+            }
+        } catch (Exception e) {
+            // 查不到引用就不能判断哪些文件没用，这次跳过
+            logger.error("查询封面引用失败，跳过本次清理", e);
+            return;
+        }
+        int deleted = 0;
+        long freedBytes = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                if (!Files.isRegularFile(path) || referenced.contains(name)) {
+                    continue;
+                }
+                try {
+                    if (Files.getLastModifiedTime(path).toMillis() >= cutoff) {
+                        continue;
+                    }
+                    long size = Files.size(path);
+                    if (Files.deleteIfExists(path)) {
+                        deleted++;
+                        freedBytes += size;
+                    }
+                } catch (IOException e) {
+                    logger.warn("删除无用封面{}失败", name, e);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("清理封面目录失败", e);
+        }
+        if (deleted > 0) {
+            logger.info("封面清理完成：删除{}个无引用文件，释放{}字节", deleted, freedBytes);
+        }
+    }
+
+    // 文件存在则把修改时间更新为现在，返回是否存在
+    private static boolean touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException e) {
+            // 不存在（或刚被清理掉）
+            return false;
+        }
+    }
+
+    // 拷贝通道内容，同时计算SHA-256，返回十六进制哈希
+    private static String copy(ReadableByteChannel source, FileChannel target) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        while (source.read(buffer) >= 0) {
+            buffer.flip();
+            // 先算哈希再写：digest读完后把position恢复，写入同一段数据
+            int start = buffer.position();
+            digest.update(buffer);
+            buffer.position(start);
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            buffer.clear();
+        }
+        target.force(false);
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    // 规范化的扩展名（小写，jpeg统一为jpg）；不是允许的图片格式返回null
+    private static String extensionOf(String fileName) {
+        if (fileName == null || fileName.lastIndexOf('.') < 0) {
+            return null;
+        }
+        String extension = fileName.substring(fileName.lastIndexOf('.')).toLowerCase(Locale.ROOT);
+        if (!EXTENSIONS.contains(extension)) {
+            return null;
+        }
+        return ".jpeg".equals(extension) ? ".jpg" : extension;
+    }
+}
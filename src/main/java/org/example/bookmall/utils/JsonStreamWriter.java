@@ -0,0 +1,75 @@
+package org.example.bookmall.utils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+//流式JSON数组写出工具：查询结果一行一行写到响应流，不在内存里攒整个List
+//两种格式：
+// - resultArray：与ResultUtil相同的外层结构 {"code":200,"msg":"操作成功","data":[...] , 附加字段}
+// - bareArray：纯数组 [...]
+public class JsonStreamWriter {
+    //每写多少行flush一次，避免大结果集全部堆在输出缓冲里
+    private static final int FLUSH_EVERY_ROWS = 200;
+
+    private final JsonGenerator gen;
+    private final boolean wrapped;
+    private int rowCount = 0;
+
+    private JsonStreamWriter(JsonGenerator gen, boolean wrapped) {
+        this.gen = gen;
+        this.wrapped = wrapped;
+    }
+
+    //ResultUtil结构，data为流式数组
+    public static JsonStreamWriter resultArray(ObjectMapper objectMapper, OutputStream out) throws IOException {
+        JsonGenerator gen = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        gen.writeStartObject();
+        gen.writeNumberField("code", 200);
+        gen.writeStringField("msg", "操作成功");
+        gen.writeArrayFieldStart("data");
+        return new JsonStreamWriter(gen, true);
+    }
+
+    //纯数组
+    public static JsonStreamWriter bareArray(ObjectMapper objectMapper, OutputStream out) throws IOException {
+        JsonGenerator gen = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        gen.writeStartArray();
+        return new JsonStreamWriter(gen, false);
+    }
+
+    //写一行（在JDBC/MyBatis的行回调里调用，IO异常转成非受检异常以便在lambda中使用）
+    public void writeRow(Object row) {
+        try {
+            gen.writeObject(row);
+            if (++rowCount % FLUSH_EVERY_ROWS == 0) {
+                gen.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    //结束数组；ResultUtil结构可附加字段（如nextCursor），纯数组忽略trailer
+    public void finish(Map<String, Object> trailer) throws IOException {
+        gen.writeEndArray();
+        if (wrapped) {
+            if (trailer != null) {
+                for (Map.Entry<String, Object> e : trailer.entrySet()) {
+                    gen.writeObjectField(e.getKey(), e.getValue());
+                }
+            }
+            gen.writeEndObject();
+        }
+        gen.flush();
+    }
+}
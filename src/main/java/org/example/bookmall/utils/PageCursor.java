@@ -0,0 +1,42 @@
+package org.example.bookmall.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+//翻页游标工具类：把上一页最后一行的排序键编码成不透明字符串，下一页从该位置往后查（keyset分页）
+//格式：Base64URL("v1:键1:键2...")，前端只需原样回传，不需要理解内容
+public class PageCursor {
+    private static final String VERSION = "v1";
+
+    //编码：如 encode(saleNum, bid)
+    public static String encode(long... keys) {
+        StringBuilder sb = new StringBuilder(VERSION);
+        for (long key : keys) {
+            sb.append(':').append(key);
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    //解码：游标格式不对或键个数不符时返回null，由调用方返回参数错误
+    public static long[] decode(String cursor, int keyCount) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":");
+            if (parts.length != keyCount + 1 || !VERSION.equals(parts[0])) {
+                return null;
+            }
+            long[] keys = new long[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                keys[i] = Long.parseLong(parts[i + 1]);
+            }
+            return keys;
+        } catch (IllegalArgumentException e) {
+            // Base64非法、数字格式错误（NumberFormatException也是IllegalArgumentException）
+            return null;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.example.bookmall.utils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//每个请求访问数据库的往返次数计数器
+//请求线程start()后，该线程上的每次JDBC往返（执行语句、提交、回滚）都会计数，见RoundTripCountingDataSource
+//在其他线程上替请求执行SQL时（如下单组提交），用attach()把请求的计数器带过去：一次往返同时计入批内每个请求
+public final class RoundTripCounter {
+    private static final ThreadLocal<Collection<RoundTripCounter>> CURRENT = new ThreadLocal<>();
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    private RoundTripCounter() {
+    }
+
+    // 为当前线程开始一个新的计数器
+    public static RoundTripCounter start() {
+        RoundTripCounter counter = new RoundTripCounter();
+        CURRENT.set(Collections.singletonList(counter));
+        return counter;
+    }
+
+    // 当前线程的计数器（未开始计数返回null）
+    public static RoundTripCounter current() {
+        Collection<RoundTripCounter> counters = CURRENT.get();
+        return counters == null || counters.size() != 1 ? null : counters.iterator().next();
+    }
+
+    // 结束当前线程的计数
+    public static void stop() {
+        CURRENT.remove();
+    }
+
+    // 在当前线程上执行task，期间的往返计入counters（null元素忽略），结束后恢复原来的计数器
+    public static void attach(Collection<RoundTripCounter> counters, Runnable task) {
+        Collection<RoundTripCounter> previous = CURRENT.get();
+        CURRENT.set(counters);
+        try {
+            task.run();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    // 记一次往返（由数据源代理调用）
+    public static void record() {
+        Collection<RoundTripCounter> counters = CURRENT.get();
+        if (counters != null) {
+            for (RoundTripCounter counter : counters) {
+                if (counter != null) {
+                    counter.count.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public int get() {
+        return count.get();
+    }
+}
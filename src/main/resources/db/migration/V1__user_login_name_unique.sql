@@ -0,0 +1,7 @@
+-- 登录名唯一索引
+-- 注册时UserKeyFilter判定“一定不存在”的登录名不再查库，多节点下并发注册同名用户只能靠这个索引拦下
+-- （启动/重建过滤器时检查索引是否存在，没有就照常查库）
+-- 执行前先确认没有重复的登录名：
+--   SELECT login_name, COUNT(*) FROM [dbo].[User] GROUP BY login_name HAVING COUNT(*) > 1
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE object_id = OBJECT_ID('[dbo].[User]') AND name = 'UX_User_login_name')
+    CREATE UNIQUE INDEX UX_User_login_name ON [dbo].[User] (login_name);
@@ -0,0 +1,14 @@
+-- 每日销量汇总表（SaleRollup维护，报表读取已结束的整天）：(sale_day, bid, state) → qty
+-- 销售额不入表，报表查询时按图书当前价格计算
+IF OBJECT_ID(N'dbo.SaleDailyRollup', N'U') IS NULL
+    CREATE TABLE dbo.SaleDailyRollup (
+        sale_day DATE NOT NULL,
+        bid INT NOT NULL,
+        state INT NOT NULL,
+        qty INT NOT NULL,
+        CONSTRAINT PK_SaleDailyRollup PRIMARY KEY (sale_day, bid, state)
+    );
+
+-- 报表实时统计今天/首尾不足一天的部分按sale_time范围查订单，不扫全表
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = N'IX_Order_sale_time' AND object_id = OBJECT_ID(N'dbo.[Order]'))
+    CREATE INDEX IX_Order_sale_time ON dbo.[Order] (sale_time) INCLUDE (state);
@@ -0,0 +1,10 @@
+-- Book.sale_num对账水位（SaleCounter用）：最近一次按订单明细重算sale_num时的最大订单号
+-- 重算只统计水位以内的订单；各节点刷写内存中的销量增量时丢弃水位以内的订单，避免同一单被算两次
+IF OBJECT_ID(N'dbo.SaleNumWatermark', N'U') IS NULL
+    CREATE TABLE dbo.SaleNumWatermark (
+        id INT NOT NULL CONSTRAINT PK_SaleNumWatermark PRIMARY KEY,
+        last_order_id INT NOT NULL
+    );
+
+IF NOT EXISTS (SELECT 1 FROM dbo.SaleNumWatermark WHERE id = 1)
+    INSERT INTO dbo.SaleNumWatermark (id, last_order_id) VALUES (1, 0);
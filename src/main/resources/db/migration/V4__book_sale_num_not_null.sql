@@ -0,0 +1,20 @@
+-- Book.sale_num改为NOT NULL DEFAULT 0，并按(sale_num DESC, bid)建索引
+-- 图书列表/热销图书的keyset翻页直接按原始列排序和比较，走这个索引只读一页，不再全表扫描排序
+-- 历史数据中为NULL的sale_num先按已支付（state=2）订单明细补齐（与SaleCounter对账的口径一致）
+UPDATE b SET b.sale_num = ISNULL(s.total, 0)
+FROM dbo.Book b
+LEFT JOIN (SELECT oi.bid, SUM(oi.num) AS total FROM dbo.OrderItem oi
+           INNER JOIN dbo.[Order] o ON o.order_id = oi.order_id
+           WHERE o.state = 2 GROUP BY oi.bid) s ON s.bid = b.bid
+WHERE b.sale_num IS NULL;
+
+IF NOT EXISTS (SELECT 1 FROM sys.default_constraints
+               WHERE parent_object_id = OBJECT_ID(N'dbo.Book')
+                 AND parent_column_id = COLUMNPROPERTY(OBJECT_ID(N'dbo.Book'), 'sale_num', 'ColumnId'))
+    ALTER TABLE dbo.Book ADD CONSTRAINT DF_Book_sale_num DEFAULT 0 FOR sale_num;
+
+IF COLUMNPROPERTY(OBJECT_ID(N'dbo.Book'), 'sale_num', 'AllowsNull') = 1
+    ALTER TABLE dbo.Book ALTER COLUMN sale_num INT NOT NULL;
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = N'IX_Book_sale_num_bid' AND object_id = OBJECT_ID(N'dbo.Book'))
+    CREATE INDEX IX_Book_sale_num_bid ON dbo.Book (sale_num DESC, bid ASC) INCLUDE (stock_num);
@@ -0,0 +1,8 @@
+-- 手机号唯一索引（过滤索引：没填手机号的用户不参与唯一性检查）
+-- 修改手机号时UserKeyFilter判定“一定没人用”的手机号不再查库，多节点下并发改成同一个手机号只能靠这个索引拦下
+-- （启动/重建过滤器时检查索引是否存在，没有就照常查库）
+-- 执行前先确认没有重复的手机号：
+--   SELECT phonenumber, COUNT(*) FROM [dbo].[User] WHERE phonenumber IS NOT NULL AND phonenumber <> '' GROUP BY phonenumber HAVING COUNT(*) > 1
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE object_id = OBJECT_ID('[dbo].[User]') AND name = 'UX_User_phonenumber')
+    CREATE UNIQUE INDEX UX_User_phonenumber ON [dbo].[User] (phonenumber)
+        WHERE phonenumber IS NOT NULL AND phonenumber <> '';
@@ -0,0 +1,77 @@
+package org.example.bookmall.Mapper;
+
+import org.example.bookmall.dto.BookRow;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+//类型化的行映射：BookRow按列名读取（不连数据库，用固定数据的假ResultSet）
+class BookRowMapperTest {
+    private static final String[] COLUMNS = {
+            "bid", "book_name", "author", "price", "stock_num", "sale_num", "book_type", "cover_url"};
+    private static final Object[] VALUES = {
+            1, "三体", "刘慈欣", new BigDecimal("59.00"), 100, 20, "科幻", "/uploads/covers/1.jpg"};
+
+    @Test
+    void bookRowMapperReadsColumnsByName() throws Exception {
+        BookRow row = BookOrderMapper.BOOK_ROW_MAPPER.mapRow(fakeResultSet(), 0);
+        assertEquals(Integer.valueOf(1), row.getBid());
+        assertEquals("三体", row.getBookName());
+        assertEquals(new BigDecimal("59.00"), row.getPrice());
+        assertEquals(Integer.valueOf(20), row.getSaleNum());
+        assertEquals("/uploads/covers/1.jpg", row.getCoverUrl());
+    }
+
+    // 固定一行数据的ResultSet：按列名或列序号取值，wasNull恒为false（RowMapperAllocationBenchmark共用）
+    static ResultSet fakeResultSet() {
+        ResultSetMetaData meta = (ResultSetMetaData) Proxy.newProxyInstance(
+                BookRowMapperTest.class.getClassLoader(),
+                new Class<?>[]{ResultSetMetaData.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return COLUMNS.length;
+                        case "getColumnLabel":
+                        case "getColumnName":
+                            return COLUMNS[(Integer) args[0] - 1];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        return (ResultSet) Proxy.newProxyInstance(
+                BookRowMapperTest.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getMetaData":
+                            return meta;
+                        case "wasNull":
+                            return false;
+                        case "getObject":
+                        case "getString":
+                        case "getBigDecimal":
+                        case "getInt":
+                            Object value = args[0] instanceof Integer
+                                    ? VALUES[(Integer) args[0] - 1]
+                                    : VALUES[indexOf((String) args[0])];
+                            return "getInt".equals(method.getName()) ? ((Number) value).intValue() : value;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(column);
+    }
+}
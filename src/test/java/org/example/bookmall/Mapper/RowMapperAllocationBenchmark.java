@@ -0,0 +1,70 @@
+package org.example.bookmall.Mapper;
+
+import org.example.bookmall.dto.BookRow;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.lang.management.ManagementFactory;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+//行映射内存分配对比：queryForList的ColumnMapRowMapper（每行一个LinkedCaseInsensitiveMap）vs 类型化的BookRow
+//不连数据库，用固定数据的假ResultSet，统计当前线程映射N行分配的字节数并输出到测试报告（不断言具体字节数）
+//分配量受JIT、GC和JVM版本影响，不放进单元测试：-Dbookmall.benchmark=true 时才运行
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "bookmall.benchmark", matches = "true")
+class RowMapperAllocationBenchmark {
+    private static final int ROWS = 20000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    void compareColumnMapAndTypedRowAllocation(TestReporter reporter) throws Exception {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(mx instanceof com.sun.management.ThreadMXBean,
+                "当前JVM不支持按线程统计内存分配");
+        com.sun.management.ThreadMXBean threadMx = (com.sun.management.ThreadMXBean) mx;
+        Assumptions.assumeTrue(threadMx.isThreadAllocatedMemorySupported()
+                && threadMx.isThreadAllocatedMemoryEnabled(), "当前JVM未开启线程内存分配统计");
+
+        ResultSet rs = BookRowMapperTest.fakeResultSet();
+        RowMapper<Map<String, Object>> mapMapper = new ColumnMapRowMapper();
+        RowMapper<BookRow> typedMapper = BookOrderMapper.BOOK_ROW_MAPPER;
+
+        // 预热，让JIT编译完成后再计量
+        measure(threadMx, mapMapper, rs);
+        measure(threadMx, typedMapper, rs);
+
+        long mapBytes = Long.MAX_VALUE;
+        long typedBytes = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            mapBytes = Math.min(mapBytes, measure(threadMx, mapMapper, rs));
+            typedBytes = Math.min(typedBytes, measure(threadMx, typedMapper, rs));
+        }
+        reporter.publishEntry("rows", String.valueOf(ROWS));
+        reporter.publishEntry("ColumnMapRowMapper.bytesPerRow", String.format("%.1f", (double) mapBytes / ROWS));
+        reporter.publishEntry("BookRow.bytesPerRow", String.format("%.1f", (double) typedBytes / ROWS));
+    }
+
+    // 映射ROWS行并保留结果（与queryForList一样全部放进List），返回本线程分配的字节数
+    private static long measure(com.sun.management.ThreadMXBean threadMx, RowMapper<?> mapper, ResultSet rs)
+            throws Exception {
+        long threadId = Thread.currentThread().getId();
+        long before = threadMx.getThreadAllocatedBytes(threadId);
+        List<Object> rows = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(mapper.mapRow(rs, i));
+        }
+        long after = threadMx.getThreadAllocatedBytes(threadId);
+        assertEquals(ROWS, rows.size());
+        return after - before;
+    }
+}
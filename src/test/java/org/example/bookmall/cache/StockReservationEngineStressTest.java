@@ -0,0 +1,194 @@
+package org.example.bookmall.cache;
+
+import org.example.bookmall.Mapper.BookOrderMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+//库存预留并发压测：多线程抢同一本书，内存租约 + 数据库收尾，卖出总数不能超过初始库存
+//不连数据库，Book.stock_num用一个加锁的计数器模拟（与UPDATE ... WHERE stock_num >= ?语义一致）
+class StockReservationEngineStressTest {
+    private static final int BOOK_ID = 1;
+    private static final int INITIAL_STOCK = 20000;
+    private static final int THREADS = 32;
+    private static final int STRIPES = 8;
+    private static final int LEASE_SIZE = 20;
+
+    @Test
+    void concurrentReservationsNeverOversell() throws Exception {
+        FakeBookTable book = new FakeBookTable(INITIAL_STOCK);
+        StockReservationEngine engine = newEngine(book);
+        engine.retain(Collections.singleton(BOOK_ID));
+
+        AtomicLong sold = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int misses = 0;
+                // 连续多次买不到才认为已售罄（小数量的请求还可能买到最后几本）
+                while (misses < 20) {
+                    int num = random.nextInt(1, 4);
+                    StockReservationEngine.Reservation reserved = engine.reserve(BOOK_ID, num);
+                    boolean ok;
+                    if (reserved == null) {
+                        // 不由内存管理：与下单代码一样走数据库扣减
+                        ok = book.reduce(num);
+                    } else {
+                        ok = reserved.isReserved();
+                    }
+                    if (!ok) {
+                        misses++;
+                        continue;
+                    }
+                    misses = 0;
+                    // 模拟约10%的订单事务回滚
+                    if (random.nextInt(10) == 0) {
+                        if (reserved == null) {
+                            book.add(num);
+                        } else {
+                            engine.release(reserved);
+                        }
+                    } else {
+                        sold.addAndGet(num);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        // 回收租约，余量写回数据库
+        engine.retain(Collections.emptySet());
+        assertTrue(book.stock() >= 0, "数据库库存不能为负");
+        assertEquals(INITIAL_STOCK, sold.get() + book.stock(), "卖出 + 剩余必须等于初始库存");
+        assertTrue(book.stock() < 3, "仍有可售库存未卖出：" + book.stock());
+        assertTrue(book.leases() < INITIAL_STOCK / 2, "大部分订单应由内存租约完成");
+    }
+
+    @Test
+    void evictDiscardsLeaseAndCloseReturnsLeftover() {
+        FakeBookTable book = new FakeBookTable(100);
+        StockReservationEngine engine = newEngine(book);
+        engine.retain(Collections.singleton(BOOK_ID));
+
+        assertTrue(engine.reserve(BOOK_ID, 1).isReserved());
+        // 租走LEASE_SIZE + 1本，预留1本，数据库剩余100 - 21
+        assertEquals(100 - LEASE_SIZE - 1, book.stock());
+        assertEquals(Integer.valueOf(99), engine.stockOf(BOOK_ID));
+
+        // 掉出热门：余量写回
+        engine.retain(Collections.emptySet());
+        assertEquals(99, book.stock());
+        assertNull(engine.stockOf(BOOK_ID));
+        assertNull(engine.reserve(BOOK_ID, 1));
+
+        // 管理员改库存：租约作废不归还
+        engine.retain(Collections.singleton(BOOK_ID));
+        StockReservationEngine.Reservation reserved = engine.reserve(BOOK_ID, 5);
+        assertTrue(reserved.isReserved());
+        engine.evict(BOOK_ID);
+        assertEquals(99 - LEASE_SIZE - 5, book.stock());
+        // 作废前的预留回滚：不加回管理员设置的库存，也不放进新租约
+        engine.release(reserved);
+        assertEquals(99 - LEASE_SIZE - 5, book.stock());
+        assertNull(engine.stockOf(BOOK_ID));
+    }
+
+    @Test
+    void reserveFallsBackToDatabaseWhenStockRunsLow() {
+        FakeBookTable book = new FakeBookTable(3);
+        StockReservationEngine engine = newEngine(book);
+        engine.retain(Collections.singleton(BOOK_ID));
+
+        // 租约至少给数据库留1本
+        assertTrue(engine.reserve(BOOK_ID, 2).isReserved());
+        assertEquals(1, book.stock());
+        // 内存和租约都不够：余量归还后交给数据库判断
+        assertNull(engine.reserve(BOOK_ID, 2));
+        assertFalse(book.reduce(2));
+        assertTrue(book.reduce(1));
+        assertEquals(0, book.stock());
+    }
+
+    private static StockReservationEngine newEngine(FakeBookTable book) {
+        BookOrderMapper mapper = mock(BookOrderMapper.class);
+        when(mapper.leaseBookStock(eq(BOOK_ID), anyInt()))
+                .thenAnswer(inv -> book.lease(inv.getArgument(1)));
+        when(mapper.returnBookStock(eq(BOOK_ID), anyInt()))
+                .thenAnswer(inv -> {
+                    book.add(inv.getArgument(1));
+                    return 1;
+                });
+        return new StockReservationEngine(mapper, mock(HotBookLeaderboard.class),
+                mock(PlatformTransactionManager.class), LEASE_SIZE, STRIPES);
+    }
+
+    // 模拟Book表的一行：所有修改在行锁（synchronized）内完成
+    private static final class FakeBookTable {
+        private long stock;
+        private int leases;
+
+        private FakeBookTable(long stock) {
+            this.stock = stock;
+        }
+
+        // 同BookOrderMapper.leaseBookStock：最多租maxNum本，至少留1本
+        synchronized int[] lease(int maxNum) {
+            if (stock <= 1) {
+                return null;
+            }
+            int leased = (int) Math.min(maxNum, stock - 1);
+            stock -= leased;
+            leases++;
+            return new int[]{leased, (int) stock};
+        }
+
+        // 同BookOrderMapper.reduceBookStock：库存够才扣
+        synchronized boolean reduce(int num) {
+            if (stock < num) {
+                return false;
+            }
+            stock -= num;
+            return true;
+        }
+
+        synchronized void add(int num) {
+            stock += num;
+        }
+
+        synchronized long stock() {
+            return stock;
+        }
+
+        synchronized int leases() {
+            return leases;
+        }
+    }
+}
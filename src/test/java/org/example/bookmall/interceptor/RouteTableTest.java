@@ -0,0 +1,64 @@
+package org.example.bookmall.interceptor;
+
+import org.junit.jupiter.api.Test;
+
+import static org.example.bookmall.interceptor.RouteTable.Access.AUTHENTICATED;
+import static org.example.bookmall.interceptor.RouteTable.Access.PUBLIC;
+import static org.example.bookmall.interceptor.RouteTable.Access.STATIC;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+//路由表：精确路径不能被包含关系误命中，前缀/后缀/末尾/、;jsessionid、contextPath都按Spring MVC的方式处理，带 . / .. 段的路径需要登录
+class RouteTableTest {
+    private final RouteTable routes = RouteTable.builder("/user/**")
+            .exact("/user/login", PUBLIC)
+            .exact("/user/get", PUBLIC)
+            .prefix("/user/css/", STATIC)
+            .staticSuffix(".html", ".css")
+            .build();
+
+    @Test
+    void exactPathsMatchWholePathOnly() {
+        assertEquals(PUBLIC, access("/user/login"));
+        assertEquals(PUBLIC, access("/user/login/"));
+        assertEquals(PUBLIC, access("/user/get;jsessionid=ABC"));
+        assertEquals(AUTHENTICATED, access("/user/getMyOrder"));
+        assertEquals(AUTHENTICATED, access("/user/getX/user/login"));
+        assertEquals(AUTHENTICATED, access("/user/logi"));
+    }
+
+    @Test
+    void prefixesAndSuffixesAreStatic() {
+        assertEquals(STATIC, access("/user/css/site"));
+        assertEquals(STATIC, access("/user/index.html"));
+        assertEquals(STATIC, access("/user/INDEX.HTML"));
+        assertEquals(AUTHENTICATED, access("/user/index.htmlx"));
+        assertEquals(AUTHENTICATED, access("/user/html/createOrder"));
+    }
+
+    @Test
+    void dotSegmentsNeverMatchStaticOrPublicRules() {
+        assertEquals(AUTHENTICATED, access("/user/css/..;/createOrder"));
+        assertEquals(AUTHENTICATED, access("/user/css/../createOrder"));
+        assertEquals(AUTHENTICATED, access("/user/./login"));
+        assertEquals(AUTHENTICATED, access("/user/css/../index.html"));
+        assertEquals(STATIC, access("/user/css/..site.css"));
+    }
+
+    @Test
+    void contextPathIsSkipped() {
+        assertEquals(PUBLIC, routes.match("/shop/user/login", "/shop".length()).getAccess());
+    }
+
+    @Test
+    void countersArePerRoute() {
+        routes.match("/user/login", 0).recordAllowed();
+        routes.match("/user/createOrder", 0).recordRejected();
+
+        assertEquals(1L, routes.stats().get(0).get("allowed"));
+        assertEquals(1L, routes.stats().get(routes.stats().size() - 1).get("rejected"));
+    }
+
+    private RouteTable.Access access(String path) {
+        return routes.match(path, 0).getAccess();
+    }
+}
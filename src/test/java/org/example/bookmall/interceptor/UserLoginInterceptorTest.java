@@ -0,0 +1,38 @@
+package org.example.bookmall.interceptor;
+
+import org.example.bookmall.auth.SessionTokenService;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+//拦截器按容器规范化后的路径（servletPath + pathInfo）判断，原始URI里的 ..; 不能借静态资源前缀绕过登录
+class UserLoginInterceptorTest {
+    private final UserLoginInterceptor interceptor = new UserLoginInterceptor(mock(SessionTokenService.class));
+
+    @Test
+    void dotDotSemicolonDoesNotBypassLogin() throws Exception {
+        // Tomcat对 /shop/user/css/..;/createOrder 去掉;参数、处理..后servletPath为/user/createOrder
+        MockHttpServletRequest request = request("/shop/user/css/..;/createOrder", "/user/createOrder");
+
+        assertFalse(interceptor.preHandle(request, new MockHttpServletResponse(), null));
+    }
+
+    @Test
+    void publicAndStaticPathsAreAllowed() throws Exception {
+        assertTrue(interceptor.preHandle(request("/shop/user/login;jsessionid=ABC", "/user/login"),
+                new MockHttpServletResponse(), null));
+        assertTrue(interceptor.preHandle(request("/shop/user/css/site.css", "/user/css/site.css"),
+                new MockHttpServletResponse(), null));
+    }
+
+    private static MockHttpServletRequest request(String requestUri, String servletPath) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", requestUri);
+        request.setContextPath("/shop");
+        request.setServletPath(servletPath);
+        return request;
+    }
+}
@@ -0,0 +1,160 @@
+package org.example.bookmall.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.bookmall.Mapper.BookOrderMapper;
+import org.example.bookmall.Mapper.UserMapper;
+import org.example.bookmall.cache.BookCache;
+import org.example.bookmall.cache.BookIndex;
+import org.example.bookmall.cache.HotBookLeaderboard;
+import org.example.bookmall.cache.StockReservationEngine;
+import org.example.bookmall.cache.UserCache;
+import org.example.bookmall.cache.UserKeyFilter;
+import org.example.bookmall.config.RoundTripCountingDataSource;
+import org.example.bookmall.dto.BookRow;
+import org.example.bookmall.event.OrderCreatedEvent;
+import org.example.bookmall.order.OrderIntakePipeline;
+import org.example.bookmall.utils.ResultUtil;
+import org.example.bookmall.utils.RoundTripCounter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+//单本下单的数据库往返次数：校验用户1次（之后走用户缓存） + 下单T-SQL批1次
+//前提：图书已在BookCache中（这里用mock模拟缓存命中）；缓存未命中时还要多一次查图书
+//JDBC层用Mockito模拟，经过RoundTripCountingDataSource计数；下单在组提交线程上执行，计数要带回请求线程
+class CreateOrderRoundTripTest {
+    private static final int USER_ID = 7;
+    private static final int BOOK_ID = 3;
+
+    private final List<String> executedSql = new ArrayList<>();
+    private ApplicationEventPublisher eventPublisher;
+    private BookCache bookCache;
+    private OrderIntakePipeline pipeline;
+    private UserServiceImpl userService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new RoundTripCountingDataSource(fakeDatabase()));
+        UserMapper userMapper = new UserMapper();
+        ReflectionTestUtils.setField(userMapper, "jdbcTemplate", jdbcTemplate);
+        BookOrderMapper bookOrderMapper = new BookOrderMapper();
+        ReflectionTestUtils.setField(bookOrderMapper, "jdbcTemplate", jdbcTemplate);
+
+        // 缓存命中：校验和下单都不查图书
+        bookCache = mock(BookCache.class);
+        when(bookCache.get(BOOK_ID)).thenReturn(new BookRow(BOOK_ID, "三体", "刘慈欣",
+                new BigDecimal("59.00"), 10, 0, "科幻", null));
+        // 不是热门图书：库存由SQL扣减
+        StockReservationEngine stockReservation = mock(StockReservationEngine.class);
+        when(stockReservation.reserve(anyInt(), anyInt())).thenReturn(null);
+        when(stockReservation.effectiveStock(anyInt(), anyInt())).thenAnswer(inv -> inv.getArgument(1));
+        eventPublisher = mock(ApplicationEventPublisher.class);
+
+        pipeline = new OrderIntakePipeline(bookOrderMapper, bookCache, stockReservation, eventPublisher,
+                64, 2, 100, 5000);
+        pipeline.start();
+        UserCache userCache = new UserCache(userMapper, 100, 60_000, 10_000);
+        userService = new UserServiceImpl(userMapper, bookOrderMapper, jdbcTemplate, bookCache, userCache,
+                mock(UserKeyFilter.class), mock(BookIndex.class), mock(HotBookLeaderboard.class), stockReservation,
+                pipeline, eventPublisher, new ObjectMapper(), mock(PlatformTransactionManager.class));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pipeline.stop();
+        RoundTripCounter.stop();
+    }
+
+    @Test
+    void createOrderWithWarmBookCacheTakesAtMostTwoRoundTrips() {
+        RoundTripCounter counter = RoundTripCounter.start();
+        ResultUtil result = userService.createOrder(USER_ID, BOOK_ID, 2);
+
+        assertEquals(Integer.valueOf(200), result.getCode(), result.getMsg());
+        verify(bookCache, atLeastOnce()).get(BOOK_ID);
+        assertTrue(executedSql.stream().noneMatch(sql -> sql.startsWith("SELECT bid")),
+                "图书缓存命中时不应查图书");
+        assertTrue(counter.get() <= 2, "图书缓存命中时单本下单的数据库往返应不超过2次，实际" + counter.get());
+        assertEquals(2, executedSql.size());
+        assertTrue(executedSql.get(1).contains("MERGE INTO [BookStoreDB].[dbo].[Order]"));
+
+        // 结果先于事件返回，事件稍后在事件线程上发布
+        ArgumentCaptor<Object> event = ArgumentCaptor.forClass(Object.class);
+        verify(eventPublisher, timeout(1000)).publishEvent(event.capture());
+        OrderCreatedEvent created = (OrderCreatedEvent) event.getValue();
+        assertEquals(Integer.valueOf(1001), created.getOrderId());
+        assertEquals(Integer.valueOf(8), created.getStockAfter().get(BOOK_ID));
+        assertEquals(new BigDecimal("59.00"), created.getBookPrices().get(BOOK_ID));
+    }
+
+    @Test
+    void repeatOrderSkipsUserQuery() {
+        assertEquals(Integer.valueOf(200), userService.createOrder(USER_ID, BOOK_ID, 1).getCode());
+
+        RoundTripCounter counter = RoundTripCounter.start();
+        ResultUtil result = userService.createOrder(USER_ID, BOOK_ID, 1);
+
+        assertEquals(Integer.valueOf(200), result.getCode(), result.getMsg());
+        assertEquals(1, counter.get(), "用户已在缓存中，第二单只应有下单批1次往返");
+        assertEquals(1, executedSql.stream().filter(sql -> sql.contains("FROM[User]")).count());
+    }
+
+    // 模拟数据库：查用户返回一行；下单批返回 seq=0, order_id=1001, price=59.00, stock_after=8
+    private DataSource fakeDatabase() throws Exception {
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenAnswer(inv -> {
+            String sql = inv.getArgument(0);
+            PreparedStatement statement = mock(PreparedStatement.class);
+            ResultSet rs = sql.contains("FROM[User]") ? userRow() : placedOrderRow();
+            when(statement.executeQuery()).thenAnswer(call -> {
+                executedSql.add(sql);
+                return rs;
+            });
+            return statement;
+        });
+        return dataSource;
+    }
+
+    private static ResultSet userRow() throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.next()).thenReturn(true, false);
+        when(rs.getInt("user_id")).thenReturn(USER_ID);
+        when(rs.getString("login_name")).thenReturn("reader");
+        return rs;
+    }
+
+    private static ResultSet placedOrderRow() throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.next()).thenReturn(true, false);
+        when(rs.getInt("seq")).thenReturn(0);
+        when(rs.getInt("order_id")).thenReturn(1001);
+        when(rs.getBigDecimal("price")).thenReturn(new BigDecimal("59.00"));
+        when(rs.getInt("stock_after")).thenReturn(8);
+        return rs;
+    }
+}